@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.maxprograms.xml.Element;
+
+class AttributeIndex {
+
+    private static Logger logger = System.getLogger(AttributeIndex.class.getName());
+
+    private static final int MAGIC = 0x52544154;
+    private static final int VERSION = 1;
+
+    // the attributes that exports can filter by, for every tuid; changes are made under the write lock
+    // of the memory. The index is complete when it was read from disk or built from the whole memory
+    private record Attributes(String date, String project, String client, String subject, String creationId) {
+    }
+
+    private File file;
+    private volatile Map<String, Attributes> entries;
+    private Map<String, String> values = new ConcurrentHashMap<>();
+    private volatile boolean complete;
+    private boolean saved;
+
+    public AttributeIndex(File folder) {
+        this.file = new File(folder, "attributes.bin");
+    }
+
+    public boolean isComplete() {
+        getEntries();
+        return complete;
+    }
+
+    public void setComplete() {
+        complete = true;
+    }
+
+    public void put(Element tu) throws IOException {
+        discard();
+        getEntries().put(tu.getAttributeValue("tuid"),
+                new Attributes(intern(ExportFilter.getDate(tu)), intern(ExportFilter.getProperty(tu, "project")),
+                        intern(ExportFilter.getProperty(tu, "customer")),
+                        intern(ExportFilter.getProperty(tu, "subject")), intern(tu.getAttributeValue("creationid"))));
+    }
+
+    public void remove(String tuid) throws IOException {
+        if (getEntries().containsKey(tuid)) {
+            discard();
+            entries.remove(tuid);
+        }
+    }
+
+    public List<String> find(ExportFilter filter) {
+        List<String> result = new ArrayList<>();
+        for (Entry<String, Attributes> entry : getEntries().entrySet()) {
+            Attributes a = entry.getValue();
+            if (filter.matches(a.date(), a.project(), a.client(), a.subject(), a.creationId())) {
+                result.add(entry.getKey());
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public void save() throws IOException {
+        if (entries == null || !complete || saved) {
+            return;
+        }
+        // distinct values are written once and referenced by their position
+        Map<String, Integer> pool = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Attributes a : entries.values()) {
+            addValue(pool, strings, a.project());
+            addValue(pool, strings, a.client());
+            addValue(pool, strings, a.subject());
+            addValue(pool, strings, a.creationId());
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                out.writeUTF(strings.get(i));
+            }
+            out.writeInt(entries.size());
+            for (Entry<String, Attributes> entry : entries.entrySet()) {
+                Attributes a = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(a.date());
+                out.writeInt(pool.get(a.project()));
+                out.writeInt(pool.get(a.client()));
+                out.writeInt(pool.get(a.subject()));
+                out.writeInt(pool.get(a.creationId()));
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        saved = true;
+    }
+
+    private static void addValue(Map<String, Integer> pool, List<String> strings, String value) {
+        if (!pool.containsKey(value)) {
+            pool.put(value, strings.size());
+            strings.add(value);
+        }
+    }
+
+    private String intern(String value) {
+        // few distinct projects, clients, subjects and creators are shared by many units
+        String known = values.putIfAbsent(value, value);
+        return known != null ? known : value;
+    }
+
+    private synchronized Map<String, Attributes> getEntries() {
+        if (entries == null) {
+            Map<String, Attributes> map = new ConcurrentHashMap<>();
+            if (file.exists()) {
+                try {
+                    read(map);
+                    complete = true;
+                    saved = true;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Rebuilding attribute index " + file.getAbsolutePath(), e);
+                    map.clear();
+                }
+            }
+            entries = map;
+        }
+        return entries;
+    }
+
+    private void discard() throws IOException {
+        // the saved copy is removed before the first change, so that a crash never leaves a stale index
+        getEntries();
+        if (saved) {
+            Files.deleteIfExists(file.toPath());
+            saved = false;
+        }
+    }
+
+    private void read(Map<String, Attributes> map) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported attribute index file");
+            }
+            int size = in.readInt();
+            String[] strings = new String[size];
+            for (int i = 0; i < size; i++) {
+                strings[i] = intern(in.readUTF());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String tuid = in.readUTF();
+                map.put(tuid, new Attributes(in.readUTF(), strings[in.readInt()], strings[in.readInt()],
+                        strings[in.readInt()], strings[in.readInt()]));
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.maxprograms.languages.LanguageUtils;
+import com.maxprograms.xml.Element;
+
+class ContentHashes {
+
+    private static Logger logger = System.getLogger(ContentHashes.class.getName());
+
+    private static final int MAGIC = 0x52544348;
+    private static final int VERSION = 1;
+
+    // tuid -> hash of the TUVs and changedate of the last imported version; changes are made under
+    // the write lock of the memory, import workers may read at any time
+    private File file;
+    private volatile Map<String, Long> hashes;
+    private boolean saved;
+
+    public ContentHashes(File folder) {
+        this.file = new File(folder, "hashes.bin");
+    }
+
+    public Long get(String tuid) {
+        return getHashes().get(tuid);
+    }
+
+    public void put(String tuid, long hash) throws IOException {
+        discard();
+        getHashes().put(tuid, hash);
+    }
+
+    public void remove(String tuid) throws IOException {
+        if (getHashes().containsKey(tuid)) {
+            discard();
+            hashes.remove(tuid);
+        }
+    }
+
+    public void save() throws IOException {
+        if (hashes == null || saved) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hashes.size());
+            for (Entry<String, Long> entry : hashes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        saved = true;
+    }
+
+    static long hash(Element tu) throws IOException {
+        // properties and notes of the <tu> are not part of the content, import may add them
+        long h = 0xcbf29ce484222325L;
+        h = update(h, tu.getAttributeValue("changedate"));
+        List<Element> tuvs = tu.getChildren("tuv");
+        for (int i = 0; i < tuvs.size(); i++) {
+            Element tuv = tuvs.get(i);
+            h = update(h, LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang")));
+            h = update(h, tuv.toString());
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long update(long h, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // separator, so that moving text between fields changes the hash
+        h ^= 0xffff;
+        h *= 0x100000001b3L;
+        return h;
+    }
+
+    private synchronized Map<String, Long> getHashes() {
+        if (hashes == null) {
+            Map<String, Long> map = new ConcurrentHashMap<>();
+            saved = true;
+            if (file.exists()) {
+                try {
+                    read(map);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Discarding content hashes " + file.getAbsolutePath(), e);
+                    map.clear();
+                    saved = false;
+                }
+            }
+            hashes = map;
+        }
+        return hashes;
+    }
+
+    private void discard() throws IOException {
+        // the saved copy is removed before the first change, so that a crash never leaves stale hashes
+        getHashes();
+        if (saved) {
+            Files.deleteIfExists(file.toPath());
+            saved = false;
+        }
+    }
+
+    private void read(Map<String, Long> map) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported content hash file");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String tuid = in.readUTF();
+                map.put(tuid, in.readLong());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+public class Deadline {
+
+    private final boolean bounded;
+    private final long end;
+    private volatile boolean reached;
+
+    private Deadline(long millis) {
+        bounded = millis > 0;
+        end = System.nanoTime() + millis * 1_000_000L;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(millis);
+    }
+
+    public static Deadline none() {
+        return new Deadline(0);
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public boolean expired() {
+        // checked between units of work; once reached, the result being built is marked as partial
+        if (!reached && bounded && System.nanoTime() - end >= 0) {
+            reached = true;
+        }
+        return reached;
+    }
+
+    public boolean isPartial() {
+        return reached;
+    }
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class ExactIndex {
+
+    // maps a hash of the lower case pure text of every TUV to the tuids that contain it
+    private Map<String, Table> languages = new ConcurrentHashMap<>();
+    // languages being built by build(), with the changes made to them in the meantime
+    private Map<String, Loading> loading = new ConcurrentHashMap<>();
+
+    private record Change(long key, String tuid, boolean added) {
+    }
+
+    public boolean isLoaded(String lang) {
+        return languages.containsKey(lang);
+    }
+
+    public boolean isEmpty() {
+        return languages.isEmpty();
+    }
+
+    public void clear() {
+        languages.clear();
+        loading.clear();
+    }
+
+    public boolean startLoad(String lang) {
+        // the caller must hold the write lock; changes made from now on are kept until install()
+        if (languages.containsKey(lang) || loading.containsKey(lang)) {
+            return false;
+        }
+        loading.put(lang, new Loading());
+        return true;
+    }
+
+    public void build(String lang, File database) throws SQLException {
+        // reads the committed TUVs without any lock, searches do not use the language until install()
+        Loading pending = loading.get(lang);
+        if (pending == null) {
+            return;
+        }
+        Table table = new Table();
+        try (Connection conn = MemoryReader.open(database)) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT tuid, puretext FROM tuv WHERE lang=?")) {
+                stmt.setString(1, lang);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        table.add(hash(rs.getString(2)), rs.getString(1));
+                    }
+                }
+            }
+        }
+        pending.table = table;
+    }
+
+    public void install(String lang) {
+        // the caller must hold the write lock; changes made while building are applied again, in order
+        Loading pending = loading.remove(lang);
+        if (pending == null || pending.table == null) {
+            return;
+        }
+        for (int i = 0; i < pending.changes.size(); i++) {
+            Change change = pending.changes.get(i);
+            if (change.added()) {
+                pending.table.add(change.key(), change.tuid());
+            } else {
+                pending.table.remove(change.key(), change.tuid());
+            }
+        }
+        languages.put(lang, pending.table);
+    }
+
+    public void cancel(String lang) {
+        loading.remove(lang);
+    }
+
+    public List<String> get(String lang, String pureText) {
+        Table table = languages.get(lang);
+        if (table == null) {
+            return List.of();
+        }
+        return table.get(hash(pureText));
+    }
+
+    public void add(String lang, String pureText, String tuid) {
+        Table table = languages.get(lang);
+        if (table != null) {
+            table.add(hash(pureText), tuid);
+        } else {
+            record(lang, new Change(hash(pureText), tuid, true));
+        }
+    }
+
+    public void remove(String lang, String pureText, String tuid) {
+        Table table = languages.get(lang);
+        if (table != null) {
+            table.remove(hash(pureText), tuid);
+        } else {
+            record(lang, new Change(hash(pureText), tuid, false));
+        }
+    }
+
+    private void record(String lang, Change change) {
+        Loading pending = loading.get(lang);
+        if (pending != null) {
+            pending.changes.add(change);
+        }
+    }
+
+    static long hash(String pureText) {
+        String text = pureText.toLowerCase();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        // zero marks an empty slot
+        return h == 0 ? 1 : h;
+    }
+
+    private static class Loading {
+        // written under the write lock, read by install() under the same lock
+        List<Change> changes = new ArrayList<>();
+        Table table;
+    }
+
+    private static class Table {
+
+        private static final int MIN_CAPACITY = 1024;
+
+        // open addressing with linear probing; a value is a tuid or an array of tuids sharing the hash
+        private long[] keys = new long[MIN_CAPACITY];
+        private Object[] values = new Object[MIN_CAPACITY];
+        private int size;
+
+        List<String> get(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return List.of();
+            }
+            Object value = values[slot];
+            if (value instanceof String tuid) {
+                return List.of(tuid);
+            }
+            return List.of((String[]) value);
+        }
+
+        void add(long key, String tuid) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    values[slot] = append(values[slot], tuid);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = tuid;
+            size++;
+            if (size * 3 > keys.length * 2) {
+                resize(keys.length * 2);
+            }
+        }
+
+        void remove(long key, String tuid) {
+            int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            Object value = values[slot];
+            if (value instanceof String[] tuids) {
+                values[slot] = without(tuids, tuid);
+                return;
+            }
+            if (value.equals(tuid)) {
+                delete(slot);
+            }
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void delete(int slot) {
+            // shifts back the entries that follow so that no probe sequence is broken
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != 0) {
+                int home = (int) keys[next] & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) oldKeys[i] & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static Object append(Object value, String tuid) {
+            if (value instanceof String existing) {
+                return existing.equals(tuid) ? existing : new String[] { existing, tuid };
+            }
+            String[] tuids = (String[]) value;
+            for (int i = 0; i < tuids.length; i++) {
+                if (tuids[i].equals(tuid)) {
+                    return tuids;
+                }
+            }
+            String[] result = Arrays.copyOf(tuids, tuids.length + 1);
+            result[tuids.length] = tuid;
+            return result;
+        }
+
+        private static Object without(String[] tuids, String tuid) {
+            int index = -1;
+            for (int i = 0; i < tuids.length; i++) {
+                if (tuids[i].equals(tuid)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) {
+                return tuids;
+            }
+            if (tuids.length == 2) {
+                return tuids[1 - index];
+            }
+            String[] result = new String[tuids.length - 1];
+            System.arraycopy(tuids, 0, result, 0, index);
+            System.arraycopy(tuids, index + 1, result, index, result.length - index);
+            return result;
+        }
+    }
+}
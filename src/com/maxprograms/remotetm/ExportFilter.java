@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.maxprograms.xml.Element;
+
+public class ExportFilter {
+
+    private static final Pattern TMX_DATE = Pattern.compile("\\d{8}T\\d{6}Z");
+    private static final DateTimeFormatter TMX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    // empty values do not filter; dates use the TMX format, for example 20240315T000000Z
+    private String changedSince;
+    private String project;
+    private String client;
+    private String subject;
+    private String creationId;
+
+    public ExportFilter(String changedSince, String project, String client, String subject, String creationId)
+            throws IOException {
+        this.changedSince = toTmxDate(value(changedSince));
+        this.project = value(project);
+        this.client = value(client);
+        this.subject = value(subject);
+        this.creationId = value(creationId);
+    }
+
+    private ExportFilter() {
+        changedSince = "";
+        project = "";
+        client = "";
+        subject = "";
+        creationId = "";
+    }
+
+    public static ExportFilter none() {
+        return new ExportFilter();
+    }
+
+    public boolean isEmpty() {
+        return changedSince.isEmpty() && project.isEmpty() && client.isEmpty() && subject.isEmpty()
+                && creationId.isEmpty();
+    }
+
+    public boolean matches(String date, String tuProject, String tuClient, String tuSubject, String tuCreationId) {
+        return (changedSince.isEmpty() || date.compareTo(changedSince) >= 0)
+                && (project.isEmpty() || project.equals(tuProject))
+                && (client.isEmpty() || client.equals(tuClient))
+                && (subject.isEmpty() || subject.equals(tuSubject))
+                && (creationId.isEmpty() || creationId.equals(tuCreationId));
+    }
+
+    public boolean matches(Element tu) {
+        return matches(getDate(tu), getProperty(tu, "project"), getProperty(tu, "customer"),
+                getProperty(tu, "subject"), tu.getAttributeValue("creationid"));
+    }
+
+    static String getDate(Element tu) {
+        // a unit that was never changed is as recent as its creation
+        String changed = tu.getAttributeValue("changedate");
+        String created = tu.getAttributeValue("creationdate");
+        return changed.compareTo(created) >= 0 ? changed : created;
+    }
+
+    static String getProperty(Element tu, String type) {
+        List<Element> props = tu.getChildren("prop");
+        for (int i = 0; i < props.size(); i++) {
+            Element prop = props.get(i);
+            if (type.equals(prop.getAttributeValue("type"))) {
+                return prop.getText();
+            }
+        }
+        return "";
+    }
+
+    private static String toTmxDate(String date) throws IOException {
+        // dates are compared as text, so anything that is not a TMX date must be converted or refused
+        if (date.isEmpty() || TMX_DATE.matcher(date).matches()) {
+            return date;
+        }
+        try {
+            if (date.length() == 10) {
+                return TMX_FORMAT.format(LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC));
+            }
+            TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(date, OffsetDateTime::from,
+                    LocalDateTime::from);
+            if (parsed instanceof OffsetDateTime offset) {
+                return TMX_FORMAT.format(offset.withOffsetSameInstant(ZoneOffset.UTC));
+            }
+            // without an offset the time is taken as UTC, like TMX dates
+            return TMX_FORMAT.format(((LocalDateTime) parsed).atOffset(ZoneOffset.UTC));
+        } catch (DateTimeParseException e) {
+            throw new IOException("Invalid date: " + date);
+        }
+    }
+
+    private static String value(String value) {
+        return value == null ? "" : value.trim();
+    }
+}
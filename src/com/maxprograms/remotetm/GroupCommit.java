@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+class GroupCommit {
+
+    // writes that are not yet committed share one future, completed by the commit that makes them durable
+    private int maxWrites;
+    private long maxDelay;
+    private int pending;
+    private CompletableFuture<Void> batch;
+    private ScheduledFuture<?> timer;
+
+    public GroupCommit(int maxWrites, long maxDelay) {
+        this.maxWrites = maxWrites;
+        this.maxDelay = maxDelay;
+        this.batch = new CompletableFuture<>();
+    }
+
+    public synchronized void setPolicy(int maxWrites, long maxDelay) {
+        this.maxWrites = maxWrites;
+        this.maxDelay = maxDelay;
+    }
+
+    public synchronized int getMaxWrites() {
+        return maxWrites;
+    }
+
+    public synchronized long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public synchronized boolean hasPending() {
+        return pending > 0;
+    }
+
+    public synchronized CompletableFuture<Void> written() {
+        pending++;
+        return batch;
+    }
+
+    public synchronized boolean commitNow(boolean durable) {
+        // a durable write is committed now unless a timer will commit it; with a count-only policy it
+        // would otherwise wait for more writes that may never come
+        return (maxWrites > 0 && pending >= maxWrites) || (durable && maxDelay <= 0);
+    }
+
+    public synchronized boolean needsTimer() {
+        return maxDelay > 0 && pending > 0 && timer == null;
+    }
+
+    public synchronized void setTimer(ScheduledFuture<?> timer) {
+        this.timer = timer;
+    }
+
+    public void committed() {
+        next().complete(null);
+    }
+
+    public void failed(Throwable cause) {
+        next().completeExceptionally(cause);
+    }
+
+    private synchronized CompletableFuture<Void> next() {
+        CompletableFuture<Void> done = batch;
+        batch = new CompletableFuture<>();
+        pending = 0;
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return done;
+    }
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+public class ImportJob {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    // progress is written to disk at most once in this period
+    private static final long SAVE_INTERVAL = 2000L;
+
+    private String id;
+    private String memory;
+    private String user;
+    private String file;
+    private volatile String state;
+    private AtomicLong processed;
+    private long created;
+    private volatile long started;
+    private volatile long finished;
+    private volatile String reason;
+    private volatile boolean cancelled;
+    private volatile long lastSaved;
+    // only counted by incremental imports
+    private volatile boolean incremental;
+    private AtomicLong inserted;
+    private AtomicLong updated;
+    private AtomicLong skipped;
+
+    public ImportJob(String id, String memory, String user, String file) {
+        this.id = id;
+        this.memory = memory;
+        this.user = user;
+        this.file = file;
+        this.state = QUEUED;
+        this.processed = new AtomicLong();
+        this.inserted = new AtomicLong();
+        this.updated = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.created = System.currentTimeMillis();
+    }
+
+    public ImportJob(JSONObject json) {
+        this.id = json.getString("id");
+        this.memory = json.getString("memory");
+        this.user = json.getString("user");
+        this.file = json.optString("file");
+        this.state = json.getString("state");
+        this.processed = new AtomicLong(json.optLong("processed"));
+        this.incremental = json.has("skipped");
+        this.inserted = new AtomicLong(json.optLong("inserted"));
+        this.updated = new AtomicLong(json.optLong("updated"));
+        this.skipped = new AtomicLong(json.optLong("skipped"));
+        this.created = json.optLong("created");
+        this.started = json.optLong("started");
+        this.finished = json.optLong("finished");
+        this.reason = json.optString("reason", null);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getMemory() {
+        return memory;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return DONE.equals(state) || FAILED.equals(state) || CANCELLED.equals(state);
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getFinished() {
+        return finished;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    void setRunning() {
+        state = RUNNING;
+        started = System.currentTimeMillis();
+    }
+
+    void setFinished(String state, String reason) {
+        this.reason = reason;
+        this.finished = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    public void counted(long insertedUnits, long updatedUnits, long skippedUnits) {
+        incremental = true;
+        inserted.addAndGet(insertedUnits);
+        updated.addAndGet(updatedUnits);
+        skipped.addAndGet(skippedUnits);
+    }
+
+    public void progress(long count) {
+        processed.addAndGet(count);
+        long now = System.currentTimeMillis();
+        if (now - lastSaved >= SAVE_INTERVAL) {
+            lastSaved = now;
+            JobManager.save(this);
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("memory", memory);
+        json.put("user", user);
+        json.put("file", file);
+        json.put("state", state);
+        json.put("processed", processed.get());
+        if (incremental) {
+            json.put("inserted", inserted.get());
+            json.put("updated", updated.get());
+            json.put("skipped", skipped.get());
+        }
+        json.put("created", created);
+        if (started != 0) {
+            json.put("started", started);
+            long end = finished != 0 ? finished : System.currentTimeMillis();
+            // translation units per second
+            json.put("throughput", end > started ? processed.get() * 1000 / (end - started) : 0);
+        }
+        if (finished != 0) {
+            json.put("finished", finished);
+        }
+        if (reason != null) {
+            json.put("reason", reason);
+        }
+        return json;
+    }
+}
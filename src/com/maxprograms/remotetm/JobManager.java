@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class JobManager {
+
+    private static Logger logger = System.getLogger(JobManager.class.getName());
+
+    private static final String JOBS = "jobs";
+    private static final int IMPORT_THREADS = Math.max(1, Integer.getInteger("remotetm.importThreads", 2));
+    private static final int IMPORT_QUEUE = Math.max(1, Integer.getInteger("remotetm.importQueue", 16));
+    // finished jobs are forgotten after this time
+    private static final long RETENTION = Long.getLong("remotetm.jobRetention", 7 * 24 * 3600 * 1000L);
+
+    private static final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+    // shared by queued and streamed imports, so that both together never exceed the import threads
+    private static final Semaphore slots = new Semaphore(IMPORT_THREADS);
+    private static volatile ThreadPoolExecutor executor;
+    private static boolean loaded;
+
+    @FunctionalInterface
+    public interface ImportTask {
+        void run(ImportJob job) throws Exception;
+    }
+
+    private JobManager() {
+        // private for security
+    }
+
+    public static ImportJob submit(String memory, String user, String file, ImportTask task) throws IOException {
+        load();
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), memory, user, file);
+        jobs.put(job.getId(), job);
+        save(job);
+        try {
+            getExecutor().execute(() -> {
+                slots.acquireUninterruptibly();
+                try {
+                    run(job, task);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            Files.deleteIfExists(getFile(job.getId()).toPath());
+            throw new IOException("Too many imports in progress, try again later");
+        }
+        return job;
+    }
+
+    public static ImportJob execute(String id, String memory, String user, String file, ImportTask task)
+            throws IOException {
+        // runs in the calling thread, for imports that read the request body while it arrives; the caller
+        // may choose the id, so that another request can follow the job while this one is still running
+        load();
+        purge();
+        String jobId = id != null ? checkId(id) : UUID.randomUUID().toString();
+        if (!slots.tryAcquire()) {
+            throw new IOException("Too many imports in progress, try again later");
+        }
+        try {
+            ImportJob job = new ImportJob(jobId, memory, user, file);
+            if (jobs.putIfAbsent(jobId, job) != null) {
+                throw new IOException("Duplicate job id");
+            }
+            save(job);
+            run(job, task);
+            return job;
+        } finally {
+            slots.release();
+        }
+    }
+
+    private static String checkId(String id) throws IOException {
+        try {
+            String uuid = UUID.fromString(id).toString();
+            if (uuid.equalsIgnoreCase(id)) {
+                return uuid;
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        throw new IOException("Invalid job id");
+    }
+
+    private static void run(ImportJob job, ImportTask task) {
+        // a job cancelled while queued still runs its task, which stops at once and removes the uploaded file
+        if (!job.isCancelled()) {
+            job.setRunning();
+            save(job);
+        }
+        try {
+            task.run(job);
+            job.setFinished(ImportJob.DONE, null);
+        } catch (CancellationException e) {
+            job.setFinished(ImportJob.CANCELLED, null);
+        } catch (Exception e) {
+            logger.log(Level.ERROR, "Error running job " + job.getId(), e);
+            job.setFinished(ImportJob.FAILED, e.getMessage());
+        } finally {
+            save(job);
+        }
+    }
+
+    public static ImportJob getJob(String id) throws IOException {
+        load();
+        return jobs.get(id);
+    }
+
+    public static boolean cancel(String id) throws IOException {
+        load();
+        ImportJob job = jobs.get(id);
+        if (job == null || job.isFinished()) {
+            return false;
+        }
+        job.cancel();
+        if (ImportJob.QUEUED.equals(job.getState())) {
+            job.setFinished(ImportJob.CANCELLED, null);
+            save(job);
+        }
+        return true;
+    }
+
+    static void save(ImportJob job) {
+        // the import thread and a cancel request may save the same job at once
+        synchronized (job) {
+            try {
+                File file = getFile(job.getId());
+                File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+                Files.writeString(tmp.toPath(), job.toJSON().toString(), StandardCharsets.UTF_8);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error saving job " + job.getId(), e);
+            }
+        }
+    }
+
+    private static synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        File folder = getFolder();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".json"));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < files.length; i++) {
+            try {
+                ImportJob job = new ImportJob(new JSONObject(Files.readString(files[i].toPath(),
+                        StandardCharsets.UTF_8)));
+                if (!job.isFinished()) {
+                    // the server stopped while the job was waiting or running
+                    job.setFinished(ImportJob.FAILED, "Interrupted by server restart");
+                    save(job);
+                }
+                if (now - job.getFinished() > RETENTION) {
+                    Files.delete(files[i].toPath());
+                    continue;
+                }
+                jobs.put(job.getId(), job);
+            } catch (IOException | JSONException e) {
+                logger.log(Level.WARNING, "Error reading job " + files[i].getName(), e);
+            }
+        }
+        loaded = true;
+    }
+
+    private static void purge() {
+        long now = System.currentTimeMillis();
+        Iterator<ImportJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            ImportJob job = it.next();
+            if (job.isFinished() && now - job.getFinished() > RETENTION) {
+                it.remove();
+                try {
+                    Files.deleteIfExists(getFile(job.getId()).toPath());
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error removing job " + job.getId(), e);
+                }
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        purge();
+        if (executor == null) {
+            synchronized (JobManager.class) {
+                if (executor == null) {
+                    // a bounded queue, so that a burst of imports is refused instead of piling up
+                    executor = new ThreadPoolExecutor(IMPORT_THREADS, IMPORT_THREADS, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(IMPORT_QUEUE), r -> {
+                                Thread thread = new Thread(r, "RemoteTM import");
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static File getFolder() throws IOException {
+        File folder = new File(RemoteTM.getWorkFolder(), JOBS);
+        if (!folder.exists()) {
+            Files.createDirectories(folder.toPath());
+        }
+        return folder;
+    }
+
+    private static File getFile(String id) throws IOException {
+        return new File(getFolder(), id + ".json");
+    }
+}
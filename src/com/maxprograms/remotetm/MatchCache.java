@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.tm.Match;
+
+class MatchCache {
+
+    private static final long MAX_SIZE = Long.getLong("remotetm.matchCacheSize", 64L * 1024 * 1024);
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private record Key(String memory, long generation, String searchStr, String srcLang, String tgtLang,
+            int similarity, boolean caseSensitive, int maxMatches) {
+    }
+
+    private record Value(List<Match> matches, long size) {
+    }
+
+    private static Map<Key, Value> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    // part of every key; writing to a memory bumps it so older results are never served again
+    private static Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private static long size;
+
+    private static LongAdder hits = new LongAdder();
+    private static LongAdder misses = new LongAdder();
+    private static LongAdder evictions = new LongAdder();
+
+    private MatchCache() {
+        // private for security
+    }
+
+    public static long getGeneration(String memory) {
+        return generations.computeIfAbsent(memory, k -> new AtomicLong()).get();
+    }
+
+    public static void invalidate(String memory) {
+        generations.computeIfAbsent(memory, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public static List<Match> get(String memory, long generation, String searchStr, String srcLang,
+            String tgtLang, int similarity, boolean caseSensitive, int maxMatches) {
+        if (MAX_SIZE <= 0) {
+            return null;
+        }
+        Key key = new Key(memory, generation, searchStr, srcLang, tgtLang, similarity, caseSensitive, maxMatches);
+        Value value;
+        synchronized (MatchCache.class) {
+            value = entries.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return value.matches();
+    }
+
+    public static void put(String memory, long generation, String searchStr, String srcLang, String tgtLang,
+            int similarity, boolean caseSensitive, int maxMatches, List<Match> matches) {
+        if (MAX_SIZE <= 0 || generation != getGeneration(memory)) {
+            return;
+        }
+        long entrySize = ENTRY_OVERHEAD + 2L * searchStr.length();
+        for (int i = 0; i < matches.size(); i++) {
+            Match match = matches.get(i);
+            entrySize += ENTRY_OVERHEAD
+                    + 2L * (match.getSource().toString().length() + match.getTarget().toString().length());
+        }
+        if (entrySize > MAX_SIZE / 16) {
+            // a single huge result would flush most of the cache
+            return;
+        }
+        Key key = new Key(memory, generation, searchStr, srcLang, tgtLang, similarity, caseSensitive, maxMatches);
+        synchronized (MatchCache.class) {
+            Value old = entries.put(key, new Value(List.copyOf(matches), entrySize));
+            if (old != null) {
+                size -= old.size();
+            }
+            size += entrySize;
+            Iterator<Entry<Key, Value>> it = entries.entrySet().iterator();
+            while (size > MAX_SIZE && it.hasNext()) {
+                size -= it.next().getValue().size();
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public static JSONObject getStatistics() {
+        JSONObject result = new JSONObject();
+        synchronized (MatchCache.class) {
+            result.put("entries", entries.size());
+            result.put("size", size);
+        }
+        result.put("maxSize", MAX_SIZE);
+        result.put("hits", hits.sum());
+        result.put("misses", misses.sum());
+        result.put("evictions", evictions.sum());
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+class MemoryReader {
+
+    private MemoryReader() {
+        // private for security
+    }
+
+    public static File getDatabase(String memory) throws IOException {
+        File memoriesFolder = new File(RemoteTM.getWorkFolder(), TmManager.MEMORIES);
+        return new File(new File(memoriesFolder, memory), "database.db");
+    }
+
+    public static Connection open(File database) throws SQLException {
+        // a second, read only, connection to the engine database; it only sees committed changes
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/'));
+        conn.setReadOnly(true);
+        return conn;
+    }
+}
@@ -0,0 +1,537 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.maxprograms.swordfish.tm.NGrams;
+
+class NGramIndex {
+
+    private static Logger logger = System.getLogger(NGramIndex.class.getName());
+
+    private static final int MAGIC = 0x52544E47;
+    private static final int VERSION = 2;
+
+    private static final ThreadLocal<Counters> counters = ThreadLocal.withInitial(Counters::new);
+
+    private File folder;
+    private Map<String, Postings> languages = new ConcurrentHashMap<>();
+    // languages not loaded in this session whose saved copy has already been deleted
+    private Set<String> invalidated = ConcurrentHashMap.newKeySet();
+    // languages being built by build(), with the changes made to them in the meantime
+    private Map<String, Loading> loading = new ConcurrentHashMap<>();
+
+    // bound is the highest similarity the candidate can reach given its length
+    record Candidate(String tuid, int bound) {
+    }
+
+    // pureText is null for a removed TU
+    private record Change(String tuid, int[] ngrams, String pureText) {
+    }
+
+    public NGramIndex(File folder) {
+        this.folder = folder;
+    }
+
+    public boolean isLoaded(String lang) {
+        return languages.containsKey(lang);
+    }
+
+    public boolean isLoading(String lang) {
+        return loading.containsKey(lang);
+    }
+
+    public boolean startLoad(String lang) {
+        // the caller must hold the write lock; changes made from now on are kept until install()
+        if (languages.containsKey(lang) || loading.containsKey(lang)) {
+            return false;
+        }
+        loading.put(lang, new Loading());
+        return true;
+    }
+
+    public void build(String lang, File database) throws SQLException {
+        // reads the saved copy, or the committed TUVs, without any lock; searches do not use the language until
+        // install()
+        Loading pending = loading.get(lang);
+        if (pending == null) {
+            return;
+        }
+        File file = getFile(lang);
+        if (file.exists()) {
+            try {
+                pending.postings = read(file, lang);
+                return;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Rebuilding n-gram index " + file.getAbsolutePath(), e);
+            }
+        }
+        Postings postings = new Postings();
+        try (Connection conn = MemoryReader.open(database)) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT tuid, puretext FROM tuv WHERE lang=?")) {
+                stmt.setString(1, lang);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String pureText = rs.getString(2);
+                        postings.add(rs.getString(1), NGrams.getNGrams(pureText), pureText.length(),
+                                trimmedLength(pureText));
+                    }
+                }
+            }
+        }
+        try {
+            write(file, lang, postings);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error saving n-gram index " + file.getAbsolutePath(), e);
+        }
+        pending.postings = postings;
+    }
+
+    public void install(String lang) throws IOException {
+        // the caller must hold the write lock; changes made while building are applied again, in order
+        Loading pending = loading.remove(lang);
+        if (pending == null || pending.postings == null) {
+            return;
+        }
+        Postings postings = pending.postings;
+        for (int i = 0; i < pending.changes.size(); i++) {
+            Change change = pending.changes.get(i);
+            // the saved copy may predate the change
+            discard(lang, postings);
+            if (change.pureText() == null) {
+                postings.remove(change.tuid());
+            } else {
+                int[] ngrams = change.ngrams() != null ? change.ngrams() : NGrams.getNGrams(change.pureText());
+                postings.add(change.tuid(), ngrams, change.pureText().length(), trimmedLength(change.pureText()));
+            }
+        }
+        languages.put(lang, postings);
+        invalidated.remove(lang);
+    }
+
+    public void cancel(String lang) {
+        loading.remove(lang);
+    }
+
+    public void add(String lang, String tuid, String pureText) throws IOException {
+        Postings postings = languages.get(lang);
+        if (postings == null) {
+            record(lang, new Change(tuid, null, pureText));
+            invalidate(lang);
+            return;
+        }
+        discard(lang, postings);
+        postings.add(tuid, NGrams.getNGrams(pureText), pureText.length(), trimmedLength(pureText));
+    }
+
+    public void add(String lang, String tuid, int[] ngrams, String pureText) throws IOException {
+        // same as add(lang, tuid, pureText) with n-grams computed by the caller
+        Postings postings = languages.get(lang);
+        if (postings == null) {
+            record(lang, new Change(tuid, ngrams, pureText));
+            invalidate(lang);
+            return;
+        }
+        discard(lang, postings);
+        postings.add(tuid, ngrams, pureText.length(), trimmedLength(pureText));
+    }
+
+    public void remove(String lang, String tuid) throws IOException {
+        Postings postings = languages.get(lang);
+        if (postings == null) {
+            record(lang, new Change(tuid, null, null));
+            invalidate(lang);
+            return;
+        }
+        discard(lang, postings);
+        postings.remove(tuid);
+    }
+
+    public void clear() throws IOException {
+        languages.clear();
+        invalidated.clear();
+        loading.clear();
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("ngrams-") && name.endsWith(".bin"));
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    public void save() throws IOException {
+        for (Entry<String, Postings> entry : languages.entrySet()) {
+            if (!entry.getValue().saved) {
+                write(getFile(entry.getKey()), entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public List<Candidate> getCandidates(String lang, String searchStr, int[] ngrams, int similarity) {
+        Postings postings = languages.get(lang);
+        if (postings == null) {
+            return List.of();
+        }
+        return postings.getCandidates(searchStr, ngrams, similarity);
+    }
+
+    static int trimmedLength(String text) {
+        // same as text.trim().length(), without the copy
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start;
+    }
+
+    private void record(String lang, Change change) {
+        Loading pending = loading.get(lang);
+        if (pending != null) {
+            pending.changes.add(change);
+        }
+    }
+
+    private void invalidate(String lang) throws IOException {
+        // not loaded in this session, the saved copy no longer matches the database
+        if (invalidated.add(lang)) {
+            try {
+                Files.deleteIfExists(getFile(lang).toPath());
+            } catch (IOException e) {
+                invalidated.remove(lang);
+                throw e;
+            }
+        }
+    }
+
+    private void discard(String lang, Postings postings) throws IOException {
+        if (postings.saved) {
+            Files.deleteIfExists(getFile(lang).toPath());
+            postings.saved = false;
+        }
+    }
+
+    private File getFile(String lang) {
+        return new File(folder, "ngrams-" + lang + ".bin");
+    }
+
+    private static void write(File file, String lang, Postings postings) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(lang);
+            // removed TUs are dropped and the remaining ordinals renumbered
+            int[] remap = new int[postings.count];
+            int live = 0;
+            for (int i = 0; i < postings.count; i++) {
+                remap[i] = postings.tuids[i] == null ? -1 : live++;
+            }
+            out.writeInt(live);
+            for (int i = 0; i < postings.count; i++) {
+                if (remap[i] != -1) {
+                    out.writeUTF(postings.tuids[i]);
+                    writeVarInt(out, postings.lengths[i]);
+                    writeVarInt(out, postings.lengths[i] - postings.trimmed[i]);
+                }
+            }
+            out.writeInt(postings.used);
+            for (int slot = 0; slot < postings.keys.length; slot++) {
+                int[] list = postings.lists[slot];
+                if (list == null) {
+                    continue;
+                }
+                int size = postings.sizes[slot];
+                int entries = 0;
+                for (int i = 0; i < size; i++) {
+                    if (remap[list[i]] != -1) {
+                        entries++;
+                    }
+                }
+                out.writeInt(postings.keys[slot]);
+                writeVarInt(out, entries);
+                int previous = 0;
+                for (int i = 0; i < size; i++) {
+                    int ordinal = remap[list[i]];
+                    if (ordinal != -1) {
+                        writeVarInt(out, ordinal - previous);
+                        previous = ordinal;
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        postings.saved = true;
+    }
+
+    private static Postings read(File file, String lang) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !lang.equals(in.readUTF())) {
+                throw new IOException("Unsupported n-gram index file");
+            }
+            Postings postings = new Postings();
+            int count = in.readInt();
+            postings.tuids = new String[Math.max(16, count)];
+            postings.lengths = new int[postings.tuids.length];
+            postings.trimmed = new int[postings.tuids.length];
+            postings.ordinals = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String tuid = in.readUTF();
+                postings.tuids[i] = tuid;
+                postings.lengths[i] = readVarInt(in);
+                postings.trimmed[i] = postings.lengths[i] - readVarInt(in);
+                postings.ordinals.put(tuid, i);
+            }
+            postings.count = count;
+            int used = in.readInt();
+            int capacity = 1024;
+            while (used * 3 > capacity * 2) {
+                capacity *= 2;
+            }
+            postings.resize(capacity);
+            for (int i = 0; i < used; i++) {
+                int key = in.readInt();
+                int size = readVarInt(in);
+                int[] list = new int[Math.max(1, size)];
+                int ordinal = 0;
+                for (int j = 0; j < size; j++) {
+                    ordinal += readVarInt(in);
+                    list[j] = ordinal;
+                }
+                int slot = postings.find(key);
+                postings.keys[slot] = key;
+                postings.lists[slot] = list;
+                postings.sizes[slot] = size;
+            }
+            postings.used = used;
+            postings.saved = true;
+            return postings;
+        }
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Truncated n-gram index file");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed n-gram index file");
+    }
+
+    private static class Loading {
+        // written under the write lock, read by install() under the same lock
+        List<Change> changes = new ArrayList<>();
+        Postings postings;
+    }
+
+    private static class Counters {
+        int[] counts = new int[0];
+        int[] touched = new int[0];
+    }
+
+    private static class Postings {
+
+        // TU ordinals; a removed or replaced TU keeps its ordinal with a null tuid until the index is saved
+        String[] tuids = new String[16];
+        // length of the pure text, as stored in the textlength column, and of the trimmed text
+        int[] lengths = new int[16];
+        int[] trimmed = new int[16];
+        Map<String, Integer> ordinals = new HashMap<>();
+        int count;
+
+        // open addressing table from n-gram to a sorted list of ordinals
+        int[] keys;
+        int[][] lists;
+        int[] sizes;
+        int used;
+
+        boolean saved;
+
+        Postings() {
+            resize(1024);
+        }
+
+        void add(String tuid, int[] ngrams, int length, int trimmedLength) {
+            remove(tuid);
+            if (count == tuids.length) {
+                tuids = Arrays.copyOf(tuids, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                trimmed = Arrays.copyOf(trimmed, count * 2);
+            }
+            int ordinal = count++;
+            tuids[ordinal] = tuid;
+            lengths[ordinal] = length;
+            trimmed[ordinal] = trimmedLength;
+            ordinals.put(tuid, ordinal);
+            for (int i = 0; i < ngrams.length; i++) {
+                append(ngrams[i], ordinal);
+            }
+        }
+
+        void remove(String tuid) {
+            Integer ordinal = ordinals.remove(tuid);
+            if (ordinal != null) {
+                tuids[ordinal] = null;
+            }
+        }
+
+        List<Candidate> getCandidates(String searchStr, int[] ngrams, int similarity) {
+            // n-gram and length filters used by SqliteDatabase.searchTranslation
+            int min = ngrams.length * similarity / 100;
+            int max = ngrams.length * (200 - similarity) / 100;
+            int minLength = searchStr.length() * similarity / 100;
+            int maxLength = searchStr.length() * (200 - similarity) / 100;
+            int searchLength = trimmedLength(searchStr);
+            Counters buffers = counters.get();
+            if (buffers.counts.length < count) {
+                buffers.counts = new int[tuids.length];
+                buffers.touched = new int[tuids.length];
+            }
+            int[] counts = buffers.counts;
+            int[] touched = buffers.touched;
+            int found = 0;
+            for (int i = 0; i < ngrams.length; i++) {
+                int slot = find(ngrams[i]);
+                int[] list = lists[slot];
+                if (list == null) {
+                    continue;
+                }
+                int size = sizes[slot];
+                for (int j = 0; j < size; j++) {
+                    int ordinal = list[j];
+                    if (counts[ordinal]++ == 0) {
+                        touched[found++] = ordinal;
+                    }
+                }
+            }
+            List<Candidate> result = new ArrayList<>();
+            for (int i = 0; i < found; i++) {
+                int ordinal = touched[i];
+                int hits = counts[ordinal];
+                counts[ordinal] = 0;
+                if (hits < min || hits > max || tuids[ordinal] == null || lengths[ordinal] < minLength
+                        || lengths[ordinal] > maxLength) {
+                    continue;
+                }
+                // MatchQuality.similarity can not exceed the ratio between the shorter and the longer trimmed text
+                int longer = Math.max(searchLength, trimmed[ordinal]);
+                int bound = longer == 0 ? 0 : 100 * Math.min(searchLength, trimmed[ordinal]) / longer;
+                if (bound >= similarity) {
+                    result.add(new Candidate(tuids[ordinal], bound));
+                }
+            }
+            result.sort((a, b) -> Integer.compare(b.bound(), a.bound()));
+            return result;
+        }
+
+        private void append(int key, int ordinal) {
+            int slot = find(key);
+            int[] list = lists[slot];
+            if (list == null) {
+                keys[slot] = key;
+                lists[slot] = new int[] { ordinal };
+                sizes[slot] = 1;
+                used++;
+                if (used * 3 > keys.length * 2) {
+                    resize(keys.length * 2);
+                }
+                return;
+            }
+            int size = sizes[slot];
+            if (size > 0 && list[size - 1] == ordinal) {
+                // repeated n-gram in the same text
+                return;
+            }
+            if (size == list.length) {
+                list = Arrays.copyOf(list, size + (size >> 1) + 1);
+                lists[slot] = list;
+            }
+            list[size] = ordinal;
+            sizes[slot] = size + 1;
+        }
+
+        private int find(int key) {
+            int mask = keys.length - 1;
+            int h = key * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (lists[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            int[][] oldLists = lists;
+            int[] oldSizes = sizes;
+            keys = new int[capacity];
+            lists = new int[capacity][];
+            sizes = new int[capacity];
+            if (oldKeys == null) {
+                return;
+            }
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldLists[i] != null) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    lists[slot] = oldLists[i];
+                    sizes[slot] = oldSizes[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.maxprograms.swordfish.tm.SqliteDatabase;
+
+class PooledEngine {
+
+    // flag added to the reference count once the engine is retired; it can then no longer be retained,
+    // but the references already handed out are still counted until they are released
+    private static final int RETIRED = 1 << 30;
+
+    private SqliteDatabase engine;
+    private AtomicInteger references;
+    private volatile long lastAccess;
+    private CompletableFuture<Void> drained;
+    private CompletableFuture<Void> closed;
+    private ReadWriteLock lock;
+    private ExactIndex exactIndex;
+    private NGramIndex ngramIndex;
+    private ContentHashes contentHashes;
+    private AttributeIndex attributeIndex;
+    private GroupCommit groupCommit;
+
+    public PooledEngine(SqliteDatabase engine, File folder, GroupCommit groupCommit) {
+        this.engine = engine;
+        this.references = new AtomicInteger();
+        this.lastAccess = System.currentTimeMillis();
+        this.drained = new CompletableFuture<>();
+        this.closed = new CompletableFuture<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.exactIndex = new ExactIndex();
+        this.ngramIndex = new NGramIndex(folder);
+        this.contentHashes = new ContentHashes(folder);
+        this.attributeIndex = new AttributeIndex(folder);
+        this.groupCommit = groupCommit;
+    }
+
+    public SqliteDatabase getEngine() {
+        return engine;
+    }
+
+    public ExactIndex getExactIndex() {
+        return exactIndex;
+    }
+
+    public NGramIndex getNGramIndex() {
+        return ngramIndex;
+    }
+
+    public ContentHashes getContentHashes() {
+        return contentHashes;
+    }
+
+    public AttributeIndex getAttributeIndex() {
+        return attributeIndex;
+    }
+
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    public boolean isDirty() {
+        return groupCommit.hasPending();
+    }
+
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    public Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    public boolean retain() {
+        while (true) {
+            int current = references.get();
+            if ((current & RETIRED) != 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                lastAccess = System.currentTimeMillis();
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        while (true) {
+            int current = references.get();
+            if ((current & ~RETIRED) == 0) {
+                return;
+            }
+            if (references.compareAndSet(current, current - 1)) {
+                lastAccess = System.currentTimeMillis();
+                if (current - 1 == RETIRED) {
+                    drained.complete(null);
+                }
+                return;
+            }
+        }
+    }
+
+    public boolean tryRetire() {
+        if (references.compareAndSet(0, RETIRED)) {
+            drained.complete(null);
+            return true;
+        }
+        return false;
+    }
+
+    public void retire() {
+        while (true) {
+            int current = references.get();
+            if ((current & RETIRED) != 0) {
+                return;
+            }
+            if (references.compareAndSet(current, current | RETIRED)) {
+                if (current == 0) {
+                    drained.complete(null);
+                }
+                return;
+            }
+        }
+    }
+
+    public boolean awaitDrained(long millis) {
+        // true when every reference handed out before retirement has been released
+        try {
+            drained.get(millis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    public boolean isRetired() {
+        return (references.get() & RETIRED) != 0;
+    }
+
+    public boolean isIdle() {
+        return references.get() == 0;
+    }
+
+    public void checkOpen() throws IOException {
+        // called with the lock held; a reference taken before retirement may outlive the engine
+        if (closed.isDone()) {
+            throw new IOException(TmManager.CLOSED);
+        }
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void setClosed() {
+        closed.complete(null);
+    }
+
+    public void awaitClosed() {
+        closed.join();
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+class Similarity {
+
+    // same value as MatchQuality.PENALTY
+    private static final int PENALTY = 2;
+
+    private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    private static class Buffers {
+        char[] longer = new char[256];
+        char[] shorter = new char[256];
+        char[] common = new char[256];
+        int[] row = new int[257];
+        // result of the last call to lcs()
+        int length;
+        int end;
+    }
+
+    private Similarity() {
+        // private for security
+    }
+
+    public static int similarity(String x, String y) {
+        // same score as MatchQuality.similarity(), which repeatedly removes the longest common substring from both
+        // texts, computed in place on reusable buffers instead of building new strings in each step
+        int xStart = trimStart(x);
+        int xEnd = trimEnd(x, xStart);
+        int yStart = trimStart(y);
+        int yEnd = trimEnd(y, yStart);
+        int max = Math.max(xEnd - xStart, yEnd - yStart);
+        if (max == 0) {
+            return 0;
+        }
+        Buffers buf = buffers.get();
+        if (buf.longer.length < max) {
+            buf.longer = new char[max];
+            buf.shorter = new char[max];
+            buf.common = new char[max];
+            buf.row = new int[max + 1];
+        }
+        char[] a = buf.longer;
+        char[] b = buf.shorter;
+        int n;
+        int m;
+        if (xEnd - xStart == max) {
+            x.getChars(xStart, xEnd, a, 0);
+            y.getChars(yStart, yEnd, b, 0);
+            n = xEnd - xStart;
+            m = yEnd - yStart;
+        } else {
+            y.getChars(yStart, yEnd, a, 0);
+            x.getChars(xStart, xEnd, b, 0);
+            n = yEnd - yStart;
+            m = xEnd - xStart;
+        }
+        int minLength = max * 2 / 100;
+        int iterations = -1;
+        lcs(buf, a, n, b, m);
+        while (buf.length > minLength && !isBlank(a, buf.end - buf.length, buf.end)) {
+            iterations++;
+            int length = buf.length;
+            char[] common = buf.common;
+            System.arraycopy(a, buf.end - length, common, 0, length);
+            n = remove(a, n, common, length);
+            m = remove(b, m, common, length);
+            lcs(buf, a, n, b, m);
+        }
+        int result = 100 * (max - n) / max - iterations * PENALTY;
+        return result < 0 ? 0 : result;
+    }
+
+    private static void lcs(Buffers buf, char[] a, int n, char[] b, int m) {
+        // dynamic programming over a single row, updated from right to left
+        int[] row = buf.row;
+        for (int j = 0; j <= m; j++) {
+            row[j] = 0;
+        }
+        int longest = 0;
+        int end = 0;
+        for (int i = 1; i <= n; i++) {
+            char c = a[i - 1];
+            int best = 0;
+            for (int j = m; j > 0; j--) {
+                if (c == b[j - 1]) {
+                    int value = row[j - 1] + 1;
+                    row[j] = value;
+                    if (value > best) {
+                        best = value;
+                    }
+                } else {
+                    row[j] = 0;
+                }
+            }
+            if (best > longest) {
+                longest = best;
+                end = i;
+            }
+        }
+        buf.length = longest;
+        buf.end = end;
+    }
+
+    private static int remove(char[] text, int length, char[] pattern, int patternLength) {
+        // removes the first occurrence, like String.indexOf() followed by two calls to substring()
+        int last = length - patternLength;
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < patternLength && text[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == patternLength) {
+                System.arraycopy(text, i + patternLength, text, i, length - i - patternLength);
+                return length - patternLength;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isBlank(char[] text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimStart(String text) {
+        int start = 0;
+        while (start < text.length() && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String text, int start) {
+        int end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
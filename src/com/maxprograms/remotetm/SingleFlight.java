@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+class SingleFlight<K, V> {
+
+    private ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private LongAdder shared = new LongAdder();
+
+    public V run(K key, Callable<V> call) throws ExecutionException, InterruptedException {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, created);
+        if (running != null) {
+            // an identical call is in progress, wait for its result instead of repeating the work
+            shared.increment();
+            return running.get();
+        }
+        try {
+            V result = call.call();
+            created.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            created.completeExceptionally(e);
+            throw new ExecutionException(e);
+        } finally {
+            calls.remove(key, created);
+        }
+    }
+
+    public long getShared() {
+        return shared.sum();
+    }
+}
@@ -12,16 +12,52 @@
 
 package com.maxprograms.remotetm;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Hashtable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -30,33 +66,374 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xml.sax.SAXException;
 
+import com.maxprograms.languages.LanguageUtils;
 import com.maxprograms.remotetm.utils.Utils;
 import com.maxprograms.swordfish.tm.ITmEngine;
 import com.maxprograms.swordfish.tm.Match;
+import com.maxprograms.swordfish.tm.NGrams;
 import com.maxprograms.swordfish.tm.SqliteDatabase;
+import com.maxprograms.swordfish.tm.TMUtils;
 import com.maxprograms.xml.Element;
+import com.maxprograms.xml.Indenter;
+import com.maxprograms.xml.XMLNode;
+import com.maxprograms.xml.XMLUtils;
 
 public class TmManager {
 
+    private static Logger logger = System.getLogger(TmManager.class.getName());
+
     static final String MEMORIES = "memories";
     static final String CLOSED = "Memory is closed";
 
+    // idle engines stay open for this long after their last use
+    private static final long IDLE_TIMEOUT = Long.getLong("remotetm.idleTimeout", 300000L);
+    private static final int MAX_OPEN = Integer.getInteger("remotetm.maxOpenMemories", 32);
+    // a retired engine waits this long for the requests that still hold it before it is closed anyway
+    private static final long DRAIN_TIMEOUT = Long.getLong("remotetm.drainTimeout", 10000L);
+    // same threshold used by SqliteDatabase.batchTranslate
+    private static final int BATCH_SIMILARITY = 60;
+    private static final int BATCH_PARALLELISM = Math.max(1, Integer.getInteger("remotetm.batchParallelism",
+            Runtime.getRuntime().availableProcessors()));
+    private static final int MIN_CHUNK = 16;
+    private static final int SEARCH_THREADS = Integer.getInteger("remotetm.searchThreads",
+            Runtime.getRuntime().availableProcessors());
+    // fuzzy search is skipped when the exact match index finds this many matches; 0 disables the index
+    private static final int EXACT_MATCHES = Integer.getInteger("remotetm.exactMatches", 1);
+    // fuzzy candidates are taken from NGramIndex instead of the engine's FuzzyIndex
+    private static final boolean NGRAM_INDEX = Boolean.parseBoolean(System.getProperty("remotetm.ngramIndex", "true"));
+    // default group commit policy, a memory can override it with setCommitPolicy()
+    private static final int COMMIT_WRITES = Integer.getInteger("remotetm.commitWrites", 1000);
+    private static final long COMMIT_DELAY = Long.getLong("remotetm.commitDelay", 2000L);
+    private static final String COMMIT_POLICY = "commit.json";
+    private static final int IMPORT_BATCH = 1000;
+    private static final int EXPORT_BATCH = 1000;
+    private static final int IMPORT_WORKERS = Math.max(1, Integer.getInteger("remotetm.importWorkers",
+            Runtime.getRuntime().availableProcessors()));
+    // batches parsed but not yet stored, per import
+    private static final int IMPORT_PIPELINE = IMPORT_WORKERS * 2;
+    private static final Future<List<PreparedTu>> END_OF_IMPORT = CompletableFuture.completedFuture(List.of());
+
     private TmManager() {
         // private for security
     }
 
-    private static Map<String, SqliteDatabase> databases;
-    private static Map<String, Integer> count;
+    private static final ConcurrentHashMap<String, CompletableFuture<PooledEngine>> databases //
+            = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService reaper;
+    private static volatile ExecutorService searchPool;
+    private static volatile ExecutorService batchPool;
+    private static volatile ExecutorService importPool;
+    private static volatile ExecutorService importWriters;
+    private static volatile ExecutorService indexLoaders;
 
-    public static int storeTMX(String memory, String tmx, String project, String client, String subject)
-            throws IOException, SQLException, SAXException, ParserConfigurationException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        int imported = db.storeTMX(tmx, project, client, subject);
-        close(memory);
-        Files.deleteIfExists(new File(tmx).toPath());
+    public record Page(List<Element> tus, String nextCursor) {
+    }
+
+    private record IndexedTuv(String lang, String pureText, int[] ngrams) {
+    }
+
+    // tuvs is null for units that are expected to be skipped by an incremental import
+    private record PreparedTu(Element tu, long hash, List<IndexedTuv> tuvs) {
+    }
+
+    @FunctionalInterface
+    public interface SegmentListener {
+        void translated(JSONObject segment) throws IOException;
+    }
+
+    private record MemoryMatch(Match match, String memory, int priority, int order) {
+    }
+
+    private record SearchKey(String memory, long generation, String searchStr, String srcLang, String tgtLang,
+            int similarity, boolean caseSensitive, int maxMatches) {
+    }
+
+    private record ConcordanceKey(String memory, long generation, String searchStr, String srcLang, int limit,
+            boolean isRegexp, boolean caseSensitive) {
+    }
+
+    // identical searches that arrive while one is running share its result
+    private static final SingleFlight<SearchKey, List<Match>> searches = new SingleFlight<>();
+    private static final SingleFlight<ConcordanceKey, List<Element>> concordances = new SingleFlight<>();
+
+    public static int importTMX(String memory, File tmx, String project, String client, String subject,
+            boolean incremental, ImportJob job) throws IOException, SQLException, URISyntaxException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(tmx))) {
+            return importTMX(memory, input, false, project, client, subject, incremental, job);
+        } finally {
+            Files.deleteIfExists(tmx.toPath());
+        }
+    }
+
+    public static int importTMX(String memory, InputStream input, boolean zipped, String project, String client,
+            String subject, boolean incremental, ImportJob job) throws IOException, SQLException, URISyntaxException {
+        // units are parsed as they arrive; a zipped stream is inflated entry by entry
+        job.checkCancelled();
+        PooledEngine pooled = acquire(memory);
+        try {
+            if (!zipped) {
+                try (TmxReader reader = new TmxReader(input)) {
+                    return importTus(memory, pooled, reader, project, client, subject, incremental, job);
+                }
+            }
+            int imported = 0;
+            ZipInputStream zip = new ZipInputStream(input);
+            // the XML parser closes its input at the end of the document, the next entry must remain readable
+            InputStream entryStream = new FilterInputStream(zip) {
+                @Override
+                public void close() {
+                    // keep the zip stream open
+                }
+            };
+            ZipEntry entry = null;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    try (TmxReader reader = new TmxReader(entryStream)) {
+                        imported += importTus(memory, pooled, reader, project, client, subject, incremental, job);
+                    }
+                }
+            }
+            return imported;
+        } finally {
+            pooled.release();
+        }
+    }
+
+    private static int importTus(String memory, PooledEngine pooled, TmxReader reader, String project,
+            String client, String subject, boolean incremental, ImportJob job) throws IOException, SQLException, URISyntaxException {
+        // this thread parses, a pool of workers prepares content hashes and the data of RemoteTM's own
+        // indexes, and a single writer stores the batches in file order; the bounded queue stops the parser
+        // when the writer falls behind. SqliteDatabase.storeTu() only takes the unit, so the engine still
+        // extracts text, computes n-grams and updates its FuzzyIndex on the writer thread
+        String creationDate = TMUtils.creationDate();
+        BlockingQueue<Future<List<PreparedTu>>> queue = new ArrayBlockingQueue<>(IMPORT_PIPELINE);
+        Future<Integer> writer = getImportWriters().submit(() -> writeBatches(memory, pooled, queue, incremental, job));
+        try {
+            try {
+                ExecutorService workers = getImportPool();
+                List<Element> batch = new ArrayList<>(IMPORT_BATCH);
+                Element tu = reader.next();
+                while (tu != null) {
+                    setProperties(tu, project, client, subject, creationDate);
+                    batch.add(tu);
+                    if (batch.size() == IMPORT_BATCH) {
+                        List<Element> units = batch;
+                        enqueue(queue, workers.submit(() -> prepare(pooled, units, incremental)), writer);
+                        batch = new ArrayList<>(IMPORT_BATCH);
+                    }
+                    tu = reader.next();
+                }
+                if (!batch.isEmpty()) {
+                    List<Element> units = batch;
+                    enqueue(queue, workers.submit(() -> prepare(pooled, units, incremental)), writer);
+                }
+            } finally {
+                // units parsed before an error are still stored, as a sequential import would do
+                finish(queue, writer);
+            }
+            return writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            try {
+                // a worker failure reaches here wrapped twice, by the worker and by the writer
+                rethrow(e.getCause() instanceof ExecutionException nested ? nested : e);
+            } catch (SAXException | ParserConfigurationException ex) {
+                throw new IOException(ex);
+            }
+            return 0;
+        }
+    }
+
+    private static void enqueue(BlockingQueue<Future<List<PreparedTu>>> queue, Future<List<PreparedTu>> batch,
+            Future<Integer> writer) throws InterruptedException, ExecutionException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (writer.isDone()) {
+                // the writer failed, reading more is pointless
+                writer.get();
+                return;
+            }
+        }
+    }
+
+    private static void finish(BlockingQueue<Future<List<PreparedTu>>> queue, Future<Integer> writer) {
+        // the writer must be done with the engine before the caller releases it
+        boolean interrupted = false;
+        boolean ended = false;
+        while (!writer.isDone()) {
+            try {
+                if (!ended) {
+                    ended = queue.offer(END_OF_IMPORT, 100, TimeUnit.MILLISECONDS);
+                } else {
+                    writer.get();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // reported by the caller
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<PreparedTu> prepare(PooledEngine pooled, List<Element> batch, boolean incremental)
+            throws IOException {
+        NGramIndex ngramIndex = pooled.getNGramIndex();
+        ContentHashes hashes = pooled.getContentHashes();
+        List<PreparedTu> result = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Element tu = batch.get(i);
+            long hash = ContentHashes.hash(tu);
+            if (incremental && isUnchanged(hashes, tu, hash)) {
+                // almost certainly skipped by the writer, which indexes the unit itself if it is not
+                result.add(new PreparedTu(tu, hash, null));
+                continue;
+            }
+            List<Element> tuvs = tu.getChildren("tuv");
+            List<IndexedTuv> indexed = new ArrayList<>(tuvs.size());
+            for (int j = 0; j < tuvs.size(); j++) {
+                Element tuv = tuvs.get(j);
+                String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
+                String pure = TMUtils.extractText(tuv.getChild("seg"));
+                // n-grams are only needed for languages that are indexed in memory, or will be once their
+                // index is installed with the changes made while it was built
+                int[] ngrams = ngramIndex.isLoaded(lang) || ngramIndex.isLoading(lang) ? NGrams.getNGrams(pure)
+                        : null;
+                indexed.add(new IndexedTuv(lang, pure, ngrams));
+            }
+            result.add(new PreparedTu(tu, hash, indexed));
+        }
+        return result;
+    }
+
+    private static boolean isUnchanged(ContentHashes hashes, Element tu, long hash) {
+        String tuid = tu.getAttributeValue("tuid");
+        if (tuid.isEmpty()) {
+            // the engine assigns a new tuid, the unit cannot match a previous import
+            return false;
+        }
+        Long previous = hashes.get(tuid);
+        return previous != null && previous == hash;
+    }
+
+    private static int writeBatches(String memory, PooledEngine pooled,
+            BlockingQueue<Future<List<PreparedTu>>> queue, boolean incremental, ImportJob job)
+            throws IOException, SQLException, URISyntaxException, InterruptedException, ExecutionException {
+        int imported = 0;
+        Future<List<PreparedTu>> next = queue.take();
+        while (next != END_OF_IMPORT) {
+            imported += storeBatch(memory, pooled, next.get(), incremental, job);
+            next = queue.take();
+        }
         return imported;
     }
 
+    private static int storeBatch(String memory, PooledEngine pooled, List<PreparedTu> batch, boolean incremental,
+            ImportJob job) throws IOException, SQLException, URISyntaxException {
+        job.checkCancelled();
+        int inserted = 0;
+        int updated = 0;
+        int skipped = 0;
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            ITmEngine engine = pooled.getEngine();
+            ExactIndex exactIndex = pooled.getExactIndex();
+            NGramIndex ngramIndex = pooled.getNGramIndex();
+            ContentHashes hashes = pooled.getContentHashes();
+            for (int i = 0; i < batch.size(); i++) {
+                PreparedTu prepared = batch.get(i);
+                Element tu = prepared.tu();
+                // checked again here, an earlier unit of the same import may have changed it
+                String original = tu.getAttributeValue("tuid");
+                if (incremental && !original.isEmpty()) {
+                    Long previous = hashes.get(original);
+                    if (previous != null && previous == prepared.hash()) {
+                        skipped++;
+                        continue;
+                    }
+                    if (previous != null || exists(engine, original)) {
+                        updated++;
+                    } else {
+                        inserted++;
+                    }
+                }
+                engine.storeTu(tu);
+                pooled.getGroupCommit().written();
+                List<IndexedTuv> tuvs = prepared.tuvs();
+                if (tuvs == null) {
+                    indexTu(pooled, tu, true);
+                } else {
+                    String tuid = tu.getAttributeValue("tuid");
+                    pooled.getAttributeIndex().put(tu);
+                    for (int j = 0; j < tuvs.size(); j++) {
+                        IndexedTuv tuv = tuvs.get(j);
+                        exactIndex.add(tuv.lang(), tuv.pureText(), tuid);
+                        if (tuv.ngrams() != null) {
+                            ngramIndex.add(tuv.lang(), tuid, tuv.ngrams(), tuv.pureText());
+                        } else {
+                            ngramIndex.add(tuv.lang(), tuid, tuv.pureText());
+                        }
+                    }
+                }
+                if (!original.isEmpty()) {
+                    hashes.put(original, prepared.hash());
+                }
+            }
+            commitGroup(pooled);
+        } finally {
+            MatchCache.invalidate(memory);
+            lock.unlock();
+        }
+        if (incremental) {
+            job.counted(inserted, updated, skipped);
+        }
+        job.progress(batch.size());
+        return batch.size() - skipped;
+    }
+
+    private static boolean exists(ITmEngine engine, String tuid)
+            throws IOException, SQLException, URISyntaxException {
+        try {
+            return engine.getTu(tuid) != null;
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void setProperties(Element tu, String project, String client, String subject,
+            String creationDate) {
+        // same properties that SqliteDatabase.storeTMX() adds to the units it imports
+        addProperty(tu, "subject", subject);
+        addProperty(tu, "customer", client);
+        addProperty(tu, "project", project);
+        if (tu.getAttributeValue("creationdate").isEmpty()) {
+            tu.setAttribute("creationdate", creationDate);
+        }
+    }
+
+    private static void addProperty(Element tu, String type, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        List<Element> props = tu.getChildren("prop");
+        for (int i = 0; i < props.size(); i++) {
+            if (type.equals(props.get(i).getAttributeValue("type"))) {
+                return;
+            }
+        }
+        Element prop = new Element("prop");
+        prop.setAttribute("type", type);
+        prop.setText(value);
+        List<XMLNode> content = tu.getContent();
+        content.add(0, prop);
+        tu.setContent(content);
+    }
+
     public static void createMemory(String memory) throws SQLException, IOException, URISyntaxException {
         File memoriesFolder = new File(RemoteTM.getWorkFolder(), MEMORIES);
         if (!memoriesFolder.exists()) {
@@ -67,174 +444,1436 @@ public class TmManager {
     }
 
     public static boolean isOpen(String memory) {
-        if (databases == null) {
-            databases = new Hashtable<>();
-            count = new Hashtable<>();
-        }
-        return databases.containsKey(memory);
+        PooledEngine pooled = getIfOpen(databases.get(memory));
+        return pooled != null && !pooled.isRetired();
     }
 
     public static void removeMemory(String memory) throws SQLException, IOException, URISyntaxException {
-        if (databases == null) {
-            databases = new Hashtable<>();
-            count = new Hashtable<>();
-        }
-        if (databases.containsKey(memory)) {
-            ITmEngine engine = databases.get(memory);
-            engine.close();
-            databases.remove(memory);
-            count.remove(memory);
+        CompletableFuture<PooledEngine> future = databases.get(memory);
+        PooledEngine pooled = getIfOpen(future);
+        if (pooled != null) {
+            pooled.retire();
+            pooled.awaitDrained(DRAIN_TIMEOUT);
+            Lock lock = pooled.writeLock();
+            lock.lock();
+            try {
+                pooled.getEngine().close();
+            } finally {
+                // durable writes still waiting for a commit must not wait for a memory that is gone
+                pooled.getGroupCommit().failed(new IOException("Memory removed"));
+                // marked closed before the lock is released, so that requests still waiting for it fail
+                databases.remove(memory, future);
+                pooled.setClosed();
+                lock.unlock();
+            }
         }
+        MatchCache.invalidate(memory);
         File memoriesFolder = new File(RemoteTM.getWorkFolder(), MEMORIES);
         Utils.removeDir(new File(memoriesFolder, memory));
     }
 
-    public static synchronized void close(String memory) throws SQLException, IOException, URISyntaxException {
-        if (databases.containsKey(memory)) {
-            int useCount = count.get(memory);
-            if (useCount == 1) {
-                ITmEngine engine = databases.get(memory);
-                engine.close();
-                databases.remove(memory);
-                count.remove(memory);
-                return;
+    public static void close(String memory) throws SQLException, IOException, URISyntaxException {
+        PooledEngine pooled = getIfOpen(databases.get(memory));
+        if (pooled != null) {
+            // the engine is kept open until it stays idle for IDLE_TIMEOUT or is evicted
+            pooled.release();
+        }
+    }
+
+    public static String exportMemory(String memory, String name, Set<String> languages, String srcLang,
+            ExportFilter filter) throws SQLException, IOException, JSONException, SAXException,
+            ParserConfigurationException, URISyntaxException {
+        if (!filter.isEmpty()) {
+            // the engine cannot filter, the selected units are written by RemoteTM
+            File tempFolder = new File(RemoteTM.getWorkFolder(), "tmp");
+            File tmx = new File(tempFolder, name + ".tmx");
+            try (Writer writer = Files.newBufferedWriter(tmx.toPath(), StandardCharsets.UTF_8)) {
+                exportMemory(memory, languages, srcLang, filter, writer);
             }
-            count.put(memory, useCount - 1);
+            return tmx.getName();
+        }
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            File tempFolder = new File(RemoteTM.getWorkFolder(), "tmp");
+            File tmx = new File(tempFolder, name + ".tmx");
+            if (tmx.exists()) {
+                Files.delete(tmx.toPath());
+            }
+            pooled.getEngine().exportMemory(tmx.getAbsolutePath(), languages, srcLang);
+            return tmx.getName();
+        } finally {
+            lock.unlock();
+            pooled.release();
         }
     }
 
-    public static String exportMemory(String memory, String name, Set<String> languages, String srcLang)
-            throws SQLException, IOException, JSONException, SAXException, ParserConfigurationException,
+    public static int exportMemory(String memory, Set<String> languages, String srcLang, ExportFilter filter,
+            Writer writer) throws SQLException, IOException, SAXException, ParserConfigurationException,
             URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        File tempFolder = new File(RemoteTM.getWorkFolder(), "tmp");
-        File tmx = new File(tempFolder, name + ".tmx");
-        if (tmx.exists()) {
-            Files.delete(tmx.toPath());
+        // same document as SqliteDatabase.exportMemory(), written while the memory is read; the read lock
+        // is only held while a batch of units is fetched, never while the client receives them
+        PooledEngine pooled = acquire(memory);
+        try {
+            commitPending(pooled);
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<!DOCTYPE tmx PUBLIC \"-//LISA OSCAR:1998//DTD for Translation Memory eXchange//EN\" "
+                    + "\"tmx14.dtd\" >\n");
+            writer.write("<tmx version=\"1.4\">\n");
+            writer.write("<header creationtool=\"RemoteTM\" creationtoolversion=\"" + Constants.VERSION
+                    + "\" srclang=\"" + XMLUtils.cleanText(srcLang) + "\" adminlang=\"en\" datatype=\"xml\" "
+                    + "o-tmf=\"unknown\" segtype=\"block\" creationdate=\"" + TMUtils.creationDate() + "\"/>\n");
+            writer.write("<body>\n");
+            int exported = 0;
+            if (filter.isEmpty()) {
+                List<String> tuids = nextTuids(memory, "");
+                while (!tuids.isEmpty()) {
+                    exported += writeTus(getTus(pooled, tuids, languages), filter, writer);
+                    tuids = nextTuids(memory, tuids.get(tuids.size() - 1));
+                }
+            } else {
+                // only the units selected by the attribute index are read from the engine
+                List<String> selected = getAttributeIndex(memory, pooled).find(filter);
+                for (int i = 0; i < selected.size(); i += EXPORT_BATCH) {
+                    List<String> tuids = selected.subList(i, Math.min(i + EXPORT_BATCH, selected.size()));
+                    exported += writeTus(getTus(pooled, tuids, languages), filter, writer);
+                }
+            }
+            writer.write("</body>\n");
+            writer.write("</tmx>\n");
+            writer.flush();
+            return exported;
+        } finally {
+            pooled.release();
+        }
+    }
+
+    private static int writeTus(List<Element> tus, ExportFilter filter, Writer writer) throws IOException {
+        int written = 0;
+        for (int i = 0; i < tus.size(); i++) {
+            Element tu = tus.get(i);
+            // a unit may have changed since it was selected
+            if (filter.matches(tu)) {
+                Indenter.indent(tu, 2);
+                writer.write(tu.toString());
+                writer.write("\n");
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private static AttributeIndex getAttributeIndex(String memory, PooledEngine pooled)
+            throws SQLException, IOException, SAXException, ParserConfigurationException, URISyntaxException {
+        AttributeIndex index = pooled.getAttributeIndex();
+        if (index.isComplete()) {
+            return index;
         }
-        db.exportMemory(tmx.getAbsolutePath(), languages, srcLang);
-        close(memory);
-        return tmx.getName();
+        // built once from the whole memory; every batch is read and indexed under the same read lock,
+        // so that a concurrent write, which updates the index under the write lock, is never overwritten
+        synchronized (index) {
+            if (!index.isComplete()) {
+                List<String> tuids = nextTuids(memory, "");
+                while (!tuids.isEmpty()) {
+                    Lock lock = pooled.readLock();
+                    lock.lock();
+                    try {
+                        pooled.checkOpen();
+                        for (int i = 0; i < tuids.size(); i++) {
+                            Element tu = pooled.getEngine().getTu(tuids.get(i));
+                            if (tu != null) {
+                                index.put(tu);
+                            }
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    tuids = nextTuids(memory, tuids.get(tuids.size() - 1));
+                }
+                index.setComplete();
+                logger.log(Level.INFO, "Attribute index built for memory " + memory);
+            }
+        }
+        return index;
+    }
+
+    private static List<String> nextTuids(String memory, String after) throws SQLException, IOException {
+        // short queries on the primary key, so that no read transaction stays open during the export
+        List<String> tuids = new ArrayList<>(EXPORT_BATCH);
+        try (Connection conn = MemoryReader.open(MemoryReader.getDatabase(memory))) {
+            String sql = "SELECT DISTINCT tuid FROM tuv WHERE tuid>? ORDER BY tuid LIMIT ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, after);
+                stmt.setInt(2, EXPORT_BATCH);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        tuids.add(rs.getString(1));
+                    }
+                }
+            }
+        }
+        return tuids;
+    }
+
+    private static List<Element> getTus(PooledEngine pooled, List<String> tuids, Set<String> languages)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        List<Element> result = new ArrayList<>(tuids.size());
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            for (int i = 0; i < tuids.size(); i++) {
+                Element tu = pooled.getEngine().getTu(tuids.get(i));
+                if (tu == null) {
+                    // removed after its tuid was read
+                    continue;
+                }
+                List<Element> tuvs = tu.getChildren("tuv");
+                for (int j = 0; j < tuvs.size(); j++) {
+                    Element tuv = tuvs.get(j);
+                    if (!languages.contains(tuv.getAttributeValue("xml:lang"))) {
+                        tu.removeChild(tuv);
+                    }
+                }
+                result.add(tu);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    public static ITmEngine openMemory(String memory) throws SQLException, IOException {
+        return acquire(memory).getEngine();
     }
 
-    public static synchronized ITmEngine openMemory(String memory) throws SQLException, IOException {
-        if (databases == null) {
-            databases = new Hashtable<>();
-            count = new Hashtable<>();
+    static PooledEngine acquire(String memory) throws SQLException, IOException {
+        while (true) {
+            boolean opened = false;
+            CompletableFuture<PooledEngine> future = databases.get(memory);
+            if (future == null) {
+                CompletableFuture<PooledEngine> created = new CompletableFuture<>();
+                future = databases.putIfAbsent(memory, created);
+                if (future == null) {
+                    future = created;
+                    open(memory, created);
+                    opened = true;
+                }
+            }
+            PooledEngine pooled = await(future);
+            if (pooled.retain()) {
+                if (opened) {
+                    evictIdle();
+                }
+                return pooled;
+            }
+            // retired by the reaper or by eviction, wait until it is closed and open it again
+            pooled.awaitClosed();
+            databases.remove(memory, future);
         }
-        if (!databases.containsKey(memory)) {
+    }
+
+    private static void open(String memory, CompletableFuture<PooledEngine> future) throws SQLException, IOException {
+        try {
             File memoriesFolder = new File(RemoteTM.getWorkFolder(), MEMORIES);
-            databases.put(memory, new SqliteDatabase(memory, memoriesFolder.getAbsolutePath()));
-            count.put(memory, 0);
+            SqliteDatabase engine = new SqliteDatabase(memory, memoriesFolder.getAbsolutePath());
+            File folder = new File(memoriesFolder, memory);
+            future.complete(new PooledEngine(engine, folder, loadCommitPolicy(folder)));
+        } catch (SQLException | IOException | RuntimeException e) {
+            databases.remove(memory, future);
+            future.completeExceptionally(e);
+            throw e;
         }
-        count.put(memory, count.get(memory) + 1);
-        return databases.get(memory);
+        startReaper();
     }
 
-    public static void closeMemories() throws SQLException, IOException, URISyntaxException {
-        if (databases == null) {
-            databases = new Hashtable<>();
-            count = new Hashtable<>();
+    private static PooledEngine await(CompletableFuture<PooledEngine> future) throws SQLException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) {
+                throw sql;
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
         }
-        Set<String> keys = databases.keySet();
-        Iterator<String> it = keys.iterator();
+    }
+
+    private static PooledEngine getIfOpen(CompletableFuture<PooledEngine> future) {
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.join();
+    }
+
+    public static void closeMemories() throws SQLException, IOException, URISyntaxException {
+        // all engines are retired first, so that they drain at the same time
+        Map<String, CompletableFuture<PooledEngine>> retired = new HashMap<>();
+        Iterator<Entry<String, CompletableFuture<PooledEngine>>> it = databases.entrySet().iterator();
         while (it.hasNext()) {
-            ITmEngine db = databases.get(it.next());
-            db.close();
+            Entry<String, CompletableFuture<PooledEngine>> entry = it.next();
+            PooledEngine pooled = getIfOpen(entry.getValue());
+            if (pooled != null && !pooled.isRetired()) {
+                pooled.retire();
+                retired.put(entry.getKey(), entry.getValue());
+            }
+        }
+        long end = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        for (Entry<String, CompletableFuture<PooledEngine>> entry : retired.entrySet()) {
+            PooledEngine pooled = entry.getValue().join();
+            pooled.awaitDrained(Math.max(0, end - System.currentTimeMillis()));
+            closeEngine(entry.getKey(), entry.getValue(), pooled);
+        }
+    }
+
+    private static void evictIdle() {
+        while (databases.size() > MAX_OPEN) {
+            String oldest = null;
+            CompletableFuture<PooledEngine> oldestFuture = null;
+            PooledEngine oldestEngine = null;
+            for (Entry<String, CompletableFuture<PooledEngine>> entry : databases.entrySet()) {
+                PooledEngine pooled = getIfOpen(entry.getValue());
+                if (pooled != null && pooled.isIdle()
+                        && (oldestEngine == null || pooled.getLastAccess() < oldestEngine.getLastAccess())) {
+                    oldest = entry.getKey();
+                    oldestFuture = entry.getValue();
+                    oldestEngine = pooled;
+                }
+            }
+            if (oldestEngine == null) {
+                logger.log(Level.WARNING, "All " + databases.size() + " open memories are in use");
+                return;
+            }
+            if (oldestEngine.tryRetire()) {
+                closeEngine(oldest, oldestFuture, oldestEngine);
+            }
+        }
+    }
+
+    private static void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (Entry<String, CompletableFuture<PooledEngine>> entry : databases.entrySet()) {
+            PooledEngine pooled = getIfOpen(entry.getValue());
+            if (pooled != null && pooled.isIdle() && now - pooled.getLastAccess() >= IDLE_TIMEOUT
+                    && pooled.tryRetire()) {
+                closeEngine(entry.getKey(), entry.getValue(), pooled);
+            }
+        }
+    }
+
+    private static void closeEngine(String memory, CompletableFuture<PooledEngine> future, PooledEngine pooled) {
+        // waits for the requests that already hold the lock; the others fail once they get it
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.getEngine().close();
+            pooled.getGroupCommit().committed();
+            pooled.getNGramIndex().save();
+            pooled.getContentHashes().save();
+            pooled.getAttributeIndex().save();
+        } catch (SQLException | IOException | URISyntaxException e) {
+            logger.log(Level.ERROR, "Error closing memory " + memory, e);
+            pooled.getGroupCommit().failed(e);
+        } finally {
+            // marked closed before the lock is released, so that requests still waiting for it fail
+            databases.remove(memory, future);
+            pooled.setClosed();
+            lock.unlock();
+        }
+    }
+
+    private static void startReaper() {
+        if (reaper == null) {
+            synchronized (TmManager.class) {
+                if (reaper == null) {
+                    ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "RemoteTM engine reaper");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    long period = Math.max(1000L, IDLE_TIMEOUT / 4);
+                    service.scheduleWithFixedDelay(TmManager::closeIdle, period, period, TimeUnit.MILLISECONDS);
+                    reaper = service;
+                }
+            }
         }
-        databases.clear();
-        count.clear();
     }
 
     public static Set<String> getAllClients(String memory) throws IOException, SQLException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        Set<String> result = db.getAllClients();
-        close(memory);
-        return result;
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            return pooled.getEngine().getAllClients();
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
     }
 
     public static Set<String> getAllLanguages(String memory) throws SQLException, IOException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        Set<String> result = db.getAllLanguages();
-        close(memory);
-        return result;
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            return pooled.getEngine().getAllLanguages();
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
     }
 
     public static Set<String> getAllProjects(String memory) throws IOException, SQLException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        Set<String> result = db.getAllProjects();
-        close(memory);
-        return result;
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            return pooled.getEngine().getAllProjects();
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
     }
 
     public static Set<String> getAllSubjects(String memory) throws IOException, SQLException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        Set<String> result = db.getAllSubjects();
-        close(memory);
-        return result;
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            return pooled.getEngine().getAllSubjects();
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
     }
 
-    public static void storeTu(String memory, Element tu) throws SQLException, IOException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        db.storeTu(tu);
-        close(memory);
+    public static CompletableFuture<Void> storeTu(String memory, Element tu, boolean durable)
+            throws SQLException, IOException, URISyntaxException {
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            pooled.getEngine().storeTu(tu);
+            // an older version of the TU may stay in the exact index, its candidates are always verified
+            indexTu(pooled, tu, true);
+            return written(memory, pooled, durable);
+        } finally {
+            MatchCache.invalidate(memory);
+            lock.unlock();
+            pooled.release();
+        }
+    }
+
+    public static int storeTus(String memory, List<Element> tus)
+            throws SQLException, IOException, URISyntaxException {
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            // all units go through the same engine handle and are made durable with a single commit
+            ITmEngine engine = pooled.getEngine();
+            for (int i = 0; i < tus.size(); i++) {
+                Element tu = tus.get(i);
+                engine.storeTu(tu);
+                pooled.getGroupCommit().written();
+                indexTu(pooled, tu, true);
+            }
+            commitGroup(pooled);
+            return tus.size();
+        } finally {
+            MatchCache.invalidate(memory);
+            lock.unlock();
+            pooled.release();
+        }
     }
 
     public static Element getTu(String memory, String tuid)
             throws IOException, SQLException, SAXException, ParserConfigurationException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        Element result = db.getTu(tuid);
-        close(memory);
-        return result;
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            return pooled.getEngine().getTu(tuid);
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
     }
 
-    public static void removeTu(String memory, String tuid)
+    public static CompletableFuture<Void> removeTu(String memory, String tuid, boolean durable)
             throws IOException, SQLException, SAXException, ParserConfigurationException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        db.removeTu(tuid);
-        close(memory);
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            Element tu = pooled.getEngine().getTu(tuid);
+            if (tu != null) {
+                indexTu(pooled, tu, false);
+            }
+            pooled.getEngine().removeTu(tuid);
+            return written(memory, pooled, durable);
+        } finally {
+            MatchCache.invalidate(memory);
+            lock.unlock();
+            pooled.release();
+        }
     }
 
     public static void commit(String memory) throws SQLException, IOException, URISyntaxException {
         if (!isOpen(memory)) {
             throw new IOException(CLOSED);
         }
-        databases.get(memory).commit();
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            commitGroup(pooled);
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
+    }
+
+    public static void awaitCommit(CompletableFuture<Void> written)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            rethrow(e);
+        }
+    }
+
+    private static CompletableFuture<Void> written(String memory, PooledEngine pooled, boolean durable)
+            throws SQLException, IOException, URISyntaxException {
+        // the caller must hold the write lock
+        GroupCommit group = pooled.getGroupCommit();
+        CompletableFuture<Void> future = group.written();
+        if (group.commitNow(durable)) {
+            commitGroup(pooled);
+        } else if (group.needsTimer()) {
+            startReaper();
+            group.setTimer(reaper.schedule(() -> flush(memory, pooled), group.getMaxDelay(),
+                    TimeUnit.MILLISECONDS));
+        }
+        return future;
+    }
+
+    private static void commitGroup(PooledEngine pooled) throws SQLException, IOException, URISyntaxException {
+        // the caller must hold the write lock
+        try {
+            pooled.getEngine().commit();
+        } catch (SQLException | IOException | URISyntaxException e) {
+            pooled.getGroupCommit().failed(e);
+            throw e;
+        }
+        pooled.getGroupCommit().committed();
+    }
+
+    private static void flush(String memory, PooledEngine pooled) {
+        if (!pooled.retain()) {
+            // the engine is being closed, and closing commits
+            return;
+        }
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            if (pooled.isDirty()) {
+                commitGroup(pooled);
+            }
+        } catch (SQLException | IOException | URISyntaxException e) {
+            logger.log(Level.ERROR, "Error committing memory " + memory, e);
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
+    }
+
+    public static void setCommitPolicy(String memory, int maxWrites, long maxDelay)
+            throws IOException, SQLException, URISyntaxException {
+        File folder = new File(new File(RemoteTM.getWorkFolder(), MEMORIES), memory);
+        if (!folder.exists()) {
+            throw new IOException("Unknown memory");
+        }
+        JSONObject json = new JSONObject();
+        json.put("maxWrites", maxWrites);
+        json.put("maxDelay", maxDelay);
+        Files.writeString(new File(folder, COMMIT_POLICY).toPath(), json.toString(), StandardCharsets.UTF_8);
+        PooledEngine pooled = getIfOpen(databases.get(memory));
+        if (pooled != null) {
+            pooled.getGroupCommit().setPolicy(maxWrites, maxDelay);
+        }
+    }
+
+    public static JSONObject getCommitPolicy(String memory) throws IOException {
+        File folder = new File(new File(RemoteTM.getWorkFolder(), MEMORIES), memory);
+        GroupCommit group = loadCommitPolicy(folder);
+        JSONObject result = new JSONObject();
+        result.put("maxWrites", group.getMaxWrites());
+        result.put("maxDelay", group.getMaxDelay());
+        return result;
+    }
+
+    private static GroupCommit loadCommitPolicy(File folder) throws IOException {
+        File file = new File(folder, COMMIT_POLICY);
+        if (!file.exists()) {
+            return new GroupCommit(COMMIT_WRITES, COMMIT_DELAY);
+        }
+        JSONObject json = new JSONObject(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+        return new GroupCommit(json.optInt("maxWrites", COMMIT_WRITES), json.optLong("maxDelay", COMMIT_DELAY));
+    }
+
+    private static void commitPending(PooledEngine pooled) throws SQLException, IOException, URISyntaxException {
+        // makes pending changes visible to the read only connections of MemoryReader
+        if (!pooled.isDirty()) {
+            return;
+        }
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            if (pooled.isDirty()) {
+                commitGroup(pooled);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     public static List<Match> searchTranslation(String memory, String searchStr, String srcLang, String tgtLang,
-            int similarity, boolean caseSensitive)
+            int similarity, boolean caseSensitive, int maxMatches, Deadline deadline)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        List<Match> result = db.searchTranslation(searchStr, srcLang, tgtLang, similarity, caseSensitive);
-        close(memory);
+        long generation = MatchCache.getGeneration(memory);
+        List<Match> cached = MatchCache.get(memory, generation, searchStr, srcLang, tgtLang, similarity,
+                caseSensitive, maxMatches);
+        if (cached != null) {
+            return cached;
+        }
+        if (deadline.isBounded()) {
+            // a partial result must not be shared with callers that are willing to wait for the complete one
+            PooledEngine pooled = acquire(memory);
+            try {
+                loadIndexes(pooled, memory, srcLang);
+                Lock lock = pooled.readLock();
+                lock.lock();
+                try {
+                    pooled.checkOpen();
+                    return search(pooled, memory, searchStr, srcLang, tgtLang, similarity, caseSensitive,
+                            maxMatches, deadline);
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                pooled.release();
+            }
+        }
+        SearchKey key = new SearchKey(memory, generation, searchStr, srcLang, tgtLang, similarity, caseSensitive,
+                maxMatches);
+        List<Match> result = null;
+        try {
+            result = searches.run(key, () -> {
+                PooledEngine pooled = acquire(memory);
+                try {
+                    loadIndexes(pooled, memory, srcLang);
+                    Lock lock = pooled.readLock();
+                    lock.lock();
+                    try {
+                        pooled.checkOpen();
+                        return search(pooled, memory, searchStr, srcLang, tgtLang, similarity, caseSensitive,
+                                maxMatches, deadline);
+                    } finally {
+                        lock.unlock();
+                    }
+                } finally {
+                    pooled.release();
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            rethrow(e);
+        }
         return result;
     }
 
-    public static List<Element> searchAll(String memory, String searchStr, String srcLang, int similarity,
-            boolean caseSensitive)
+    private static List<Match> search(PooledEngine pooled, String memory, String searchStr, String srcLang,
+            String tgtLang, int similarity, boolean caseSensitive, int maxMatches, Deadline deadline)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        List<Element> result = db.searchAll(searchStr, srcLang, similarity, caseSensitive);
-        close(memory);
+        // the caller must hold the read lock
+        long generation = MatchCache.getGeneration(memory);
+        List<Match> result = MatchCache.get(memory, generation, searchStr, srcLang, tgtLang, similarity,
+                caseSensitive, maxMatches);
+        if (result == null) {
+            result = exactMatches(pooled, searchStr, srcLang, tgtLang, caseSensitive);
+            if ((EXACT_MATCHES <= 0 || result.size() < EXACT_MATCHES) && !deadline.expired()) {
+                result = fuzzyMatches(pooled, searchStr, srcLang, tgtLang, similarity, caseSensitive, maxMatches,
+                        deadline);
+            }
+            if (maxMatches > 0 && result.size() > maxMatches) {
+                result = result.subList(0, maxMatches);
+            }
+            if (!deadline.isPartial()) {
+                MatchCache.put(memory, generation, searchStr, srcLang, tgtLang, similarity, caseSensitive,
+                        maxMatches, result);
+            }
+        }
         return result;
     }
 
+    private static List<Match> exactMatches(PooledEngine pooled, String searchStr, String srcLang, String tgtLang,
+            boolean caseSensitive) throws IOException, SAXException, ParserConfigurationException, SQLException,
+            URISyntaxException {
+        // the caller must hold the read lock
+        ExactIndex index = pooled.getExactIndex();
+        if (EXACT_MATCHES <= 0 || !index.isLoaded(srcLang) || NGrams.getNGrams(searchStr).length == 0) {
+            return List.of();
+        }
+        List<String> tuids = index.get(srcLang, searchStr);
+        List<Match> result = new ArrayList<>();
+        String text = caseSensitive ? searchStr : searchStr.toLowerCase();
+        ITmEngine engine = pooled.getEngine();
+        for (int i = 0; i < tuids.size(); i++) {
+            Element tu = engine.getTu(tuids.get(i));
+            Element[] segs = getSegs(tu, srcLang, tgtLang);
+            if (segs == null) {
+                continue;
+            }
+            String pure = TMUtils.extractText(segs[0]);
+            if (text.equals(caseSensitive ? pure : pure.toLowerCase())) {
+                result.add(buildMatch(engine, tu, segs, srcLang, tgtLang, 100));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Match> fuzzyMatches(PooledEngine pooled, String searchStr, String srcLang, String tgtLang,
+            int similarity, boolean caseSensitive, int maxMatches, Deadline deadline) throws IOException,
+            SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        // the caller must hold the read lock
+        ITmEngine engine = pooled.getEngine();
+        NGramIndex index = pooled.getNGramIndex();
+        if (!NGRAM_INDEX || !index.isLoaded(srcLang)) {
+            return engine.searchTranslation(searchStr, srcLang, tgtLang, similarity, caseSensitive);
+        }
+        int[] ngrams = NGrams.getNGrams(searchStr);
+        if (ngrams.length == 0) {
+            return new ArrayList<>();
+        }
+        String text = caseSensitive ? searchStr : searchStr.toLowerCase();
+        // candidates come sorted by the best similarity they can reach
+        List<NGramIndex.Candidate> candidates = index.getCandidates(srcLang, searchStr, ngrams, similarity);
+        PriorityQueue<Match> best = new PriorityQueue<>(Comparator.comparingInt(Match::getSimilarity));
+        for (int i = 0; i < candidates.size(); i++) {
+            NGramIndex.Candidate candidate = candidates.get(i);
+            if (deadline.expired()) {
+                // the best candidates were scored first, what was found so far is returned
+                break;
+            }
+            if (maxMatches > 0 && best.size() == maxMatches && best.peek().getSimilarity() >= candidate.bound()) {
+                // no remaining candidate can displace the worst match kept
+                break;
+            }
+            Element tu = engine.getTu(candidate.tuid());
+            Element[] segs = getSegs(tu, srcLang, tgtLang);
+            if (segs == null) {
+                continue;
+            }
+            String pure = TMUtils.extractText(segs[0]);
+            int score = Similarity.similarity(text, caseSensitive ? pure : pure.toLowerCase());
+            if (score >= similarity) {
+                best.add(buildMatch(engine, tu, segs, srcLang, tgtLang, score));
+                if (maxMatches > 0 && best.size() > maxMatches) {
+                    best.poll();
+                }
+            }
+        }
+        List<Match> result = new ArrayList<>(best);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Element[] getSegs(Element tu, String srcLang, String tgtLang) throws IOException {
+        if (tu == null) {
+            return null;
+        }
+        Element source = null;
+        Element target = null;
+        List<Element> tuvs = tu.getChildren("tuv");
+        for (int i = 0; i < tuvs.size(); i++) {
+            Element tuv = tuvs.get(i);
+            String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
+            if (srcLang.equals(lang)) {
+                source = tuv.getChild("seg");
+            } else if (tgtLang.equals(lang)) {
+                target = tuv.getChild("seg");
+            }
+        }
+        if (source == null || target == null) {
+            return null;
+        }
+        return new Element[] { source, target };
+    }
+
+    private static Match buildMatch(ITmEngine engine, Element tu, Element[] segs, String srcLang, String tgtLang,
+            int similarity) throws SAXException, IOException, ParserConfigurationException {
+        Map<String, String> properties = new HashMap<>();
+        List<Element> props = tu.getChildren("prop");
+        for (int i = 0; i < props.size(); i++) {
+            Element prop = props.get(i);
+            properties.put(prop.getAttributeValue("type"), prop.getText());
+        }
+        return new Match(TMUtils.buildTuv(srcLang, segs[0].toString()), TMUtils.buildTuv(tgtLang, segs[1].toString()),
+                similarity, engine.getName(), properties);
+    }
+
+    private static void loadIndexes(PooledEngine pooled, String memory, String srcLang)
+            throws SQLException, IOException, URISyntaxException {
+        // starts building the missing indexes in the background; until they are installed searches use the engine
+        ExactIndex exactIndex = pooled.getExactIndex();
+        NGramIndex ngramIndex = pooled.getNGramIndex();
+        boolean loadExact = EXACT_MATCHES > 0 && !exactIndex.isLoaded(srcLang);
+        boolean loadNGrams = NGRAM_INDEX && !ngramIndex.isLoaded(srcLang);
+        if (!loadExact && !loadNGrams) {
+            return;
+        }
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            // every change made before the indexes start recording is committed and read by build()
+            if (pooled.isDirty()) {
+                commitGroup(pooled);
+            }
+            loadExact = loadExact && exactIndex.startLoad(srcLang);
+            loadNGrams = loadNGrams && ngramIndex.startLoad(srcLang);
+        } finally {
+            lock.unlock();
+        }
+        if (!loadExact && !loadNGrams) {
+            // already being built for another request
+            return;
+        }
+        if (!pooled.retain()) {
+            cancelIndexes(pooled, srcLang);
+            return;
+        }
+        boolean exact = loadExact;
+        boolean ngrams = loadNGrams;
+        getIndexLoaders().execute(() -> buildIndexes(pooled, memory, srcLang, exact, ngrams));
+    }
+
+    private static void buildIndexes(PooledEngine pooled, String memory, String srcLang, boolean exact,
+            boolean ngrams) {
+        try {
+            File database = MemoryReader.getDatabase(memory);
+            if (exact) {
+                pooled.getExactIndex().build(srcLang, database);
+            }
+            if (ngrams) {
+                pooled.getNGramIndex().build(srcLang, database);
+            }
+            Lock lock = pooled.writeLock();
+            lock.lock();
+            try {
+                pooled.checkOpen();
+                if (exact) {
+                    pooled.getExactIndex().install(srcLang);
+                }
+                if (ngrams) {
+                    pooled.getNGramIndex().install(srcLang);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (SQLException | IOException e) {
+            logger.log(Level.WARNING, "Error loading indexes of memory " + memory, e);
+            // the next search starts again
+            cancelIndexes(pooled, srcLang);
+        } finally {
+            pooled.release();
+        }
+    }
+
+    private static void cancelIndexes(PooledEngine pooled, String srcLang) {
+        Lock lock = pooled.writeLock();
+        lock.lock();
+        try {
+            pooled.getExactIndex().cancel(srcLang);
+            pooled.getNGramIndex().cancel(srcLang);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void indexTu(PooledEngine pooled, Element tu, boolean add) throws IOException {
+        ExactIndex exactIndex = pooled.getExactIndex();
+        NGramIndex ngramIndex = pooled.getNGramIndex();
+        String tuid = tu.getAttributeValue("tuid");
+        // changed outside an import, the next incremental import must not skip it
+        pooled.getContentHashes().remove(tuid);
+        if (add) {
+            pooled.getAttributeIndex().put(tu);
+        } else {
+            pooled.getAttributeIndex().remove(tuid);
+        }
+        List<Element> tuvs = tu.getChildren("tuv");
+        for (int i = 0; i < tuvs.size(); i++) {
+            Element tuv = tuvs.get(i);
+            String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
+            String pure = TMUtils.extractText(tuv.getChild("seg"));
+            if (add) {
+                exactIndex.add(lang, pure, tuid);
+                ngramIndex.add(lang, tuid, pure);
+            } else {
+                exactIndex.remove(lang, pure, tuid);
+                ngramIndex.remove(lang, tuid);
+            }
+        }
+    }
+
+    public static JSONArray searchTranslationMulti(JSONArray memories, String searchStr, String srcLang,
+            String tgtLang, int similarity, boolean caseSensitive, int limit)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        List<Future<List<Match>>> futures = new ArrayList<>();
+        ExecutorService pool = getSearchPool();
+        for (int i = 0; i < memories.length(); i++) {
+            String memory = memories.getJSONObject(i).getString("memory");
+            // no memory can contribute more than limit matches to the merged result
+            futures.add(pool.submit(
+                    () -> searchTranslation(memory, searchStr, srcLang, tgtLang, similarity, caseSensitive, limit,
+                            Deadline.none())));
+        }
+        List<MemoryMatch> merged = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                JSONObject memory = memories.getJSONObject(i);
+                int priority = memory.optInt("priority", i);
+                List<Match> matches = futures.get(i).get();
+                for (int j = 0; j < matches.size(); j++) {
+                    merged.add(new MemoryMatch(matches.get(j), memory.getString("memory"), priority, merged.size()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            rethrow(e);
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).cancel(true);
+            }
+        }
+        merged.sort(Comparator.comparingInt((MemoryMatch m) -> -m.match().getSimilarity())
+                .thenComparingInt(MemoryMatch::priority).thenComparingInt(MemoryMatch::order));
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < merged.size() && i < limit; i++) {
+            MemoryMatch m = merged.get(i);
+            JSONObject json = m.match().toJSON();
+            json.put("memory", m.memory());
+            json.put("priority", m.priority());
+            result.put(json);
+        }
+        return result;
+    }
+
+    static ExecutorService getSearchPool() {
+        if (searchPool == null) {
+            synchronized (TmManager.class) {
+                if (searchPool == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    searchPool = Executors.newFixedThreadPool(SEARCH_THREADS, r -> {
+                        Thread thread = new Thread(r, "RemoteTM search " + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return searchPool;
+    }
+
+    static void rethrow(ExecutionException e)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException io) {
+            throw io;
+        }
+        if (cause instanceof SAXException sax) {
+            throw sax;
+        }
+        if (cause instanceof ParserConfigurationException pce) {
+            throw pce;
+        }
+        if (cause instanceof SQLException sql) {
+            throw sql;
+        }
+        if (cause instanceof URISyntaxException uri) {
+            throw uri;
+        }
+        if (cause instanceof RuntimeException re) {
+            throw re;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        throw new IOException(cause);
+    }
+
+    public static List<Element> searchAll(String memory, String searchStr, String srcLang, int similarity,
+            boolean caseSensitive, Deadline deadline)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        if (deadline.isBounded()) {
+            return searchAllPage(memory, searchStr, srcLang, similarity, caseSensitive, "", Integer.MAX_VALUE,
+                    deadline).tus();
+        }
+        PooledEngine pooled = acquire(memory);
+        Lock lock = pooled.readLock();
+        lock.lock();
+        try {
+            pooled.checkOpen();
+            return pooled.getEngine().searchAll(searchStr, srcLang, similarity, caseSensitive);
+        } finally {
+            lock.unlock();
+            pooled.release();
+        }
+    }
+
     public static List<Element> concordanceSearch(String memory, String searchStr, String srcLang, int limit,
-            boolean isRegexp, boolean caseSensitive)
+            boolean isRegexp, boolean caseSensitive, Deadline deadline)
             throws SQLException, SAXException, IOException, ParserConfigurationException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        List<Element> result = db.concordanceSearch(searchStr, srcLang, limit, isRegexp, caseSensitive);
-        close(memory);
+        if (deadline.isBounded()) {
+            // the engine search cannot be stopped, the table is scanned here instead
+            return concordancePage(memory, searchStr, srcLang, isRegexp, caseSensitive, "", limit, deadline).tus();
+        }
+        ConcordanceKey key = new ConcordanceKey(memory, MatchCache.getGeneration(memory), searchStr, srcLang, limit,
+                isRegexp, caseSensitive);
+        List<Element> result = null;
+        try {
+            result = concordances.run(key, () -> {
+                PooledEngine pooled = acquire(memory);
+                Lock lock = pooled.readLock();
+                lock.lock();
+                try {
+                    pooled.checkOpen();
+                    return pooled.getEngine().concordanceSearch(searchStr, srcLang, limit, isRegexp,
+                            caseSensitive);
+                } finally {
+                    lock.unlock();
+                    pooled.release();
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            rethrow(e);
+        }
+        return result;
+    }
+
+    public static Page searchAllPage(String memory, String searchStr, String srcLang, int similarity,
+            boolean caseSensitive, String cursor, int pageSize, Deadline deadline)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        String after = decodeCursor(cursor);
+        PooledEngine pooled = acquire(memory);
+        try {
+            loadIndexes(pooled, memory, srcLang);
+            Lock lock = pooled.readLock();
+            lock.lock();
+            try {
+                pooled.checkOpen();
+                ITmEngine engine = pooled.getEngine();
+                NGramIndex index = pooled.getNGramIndex();
+                List<Element> tus = new ArrayList<>();
+                if (!NGRAM_INDEX || !index.isLoaded(srcLang)) {
+                    List<Element> all = new ArrayList<>(engine.searchAll(searchStr, srcLang, similarity,
+                            caseSensitive));
+                    all.sort(Comparator.comparing((Element tu) -> tu.getAttributeValue("tuid")));
+                    for (int i = 0; i < all.size() && tus.size() <= pageSize; i++) {
+                        if (all.get(i).getAttributeValue("tuid").compareTo(after) > 0) {
+                            tus.add(all.get(i));
+                        }
+                    }
+                    return toPage(tus, pageSize, null, deadline);
+                }
+                int[] ngrams = NGrams.getNGrams(searchStr);
+                if (ngrams.length == 0) {
+                    return new Page(tus, null);
+                }
+                List<String> tuids = new ArrayList<>();
+                List<NGramIndex.Candidate> candidates = index.getCandidates(srcLang, searchStr, ngrams, similarity);
+                for (int i = 0; i < candidates.size(); i++) {
+                    String tuid = candidates.get(i).tuid();
+                    if (tuid.compareTo(after) > 0) {
+                        tuids.add(tuid);
+                    }
+                }
+                Collections.sort(tuids);
+                String text = caseSensitive ? searchStr : searchStr.toLowerCase();
+                String last = null;
+                for (int i = 0; i < tuids.size() && tus.size() <= pageSize && !deadline.expired(); i++) {
+                    last = tuids.get(i);
+                    Element tu = engine.getTu(last);
+                    Element seg = getSeg(tu, srcLang);
+                    if (seg == null) {
+                        continue;
+                    }
+                    String pure = TMUtils.extractText(seg);
+                    if (Similarity.similarity(text, caseSensitive ? pure : pure.toLowerCase()) >= similarity) {
+                        tus.add(tu);
+                    }
+                }
+                return toPage(tus, pageSize, last, deadline);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            pooled.release();
+        }
+    }
+
+    public static Page concordancePage(String memory, String searchStr, String srcLang, boolean isRegexp,
+            boolean caseSensitive, String cursor, int pageSize, Deadline deadline)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        String after = decodeCursor(cursor);
+        Pattern pattern = null;
+        if (isRegexp) {
+            try {
+                pattern = Pattern.compile(searchStr);
+            } catch (PatternSyntaxException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        PooledEngine pooled = acquire(memory);
+        try {
+            commitPending(pooled);
+            // same conditions as SqliteDatabase.concordanceSearch, walking the primary key in tuid order
+            List<String> tuids = new ArrayList<>();
+            String last = null;
+            try (Connection conn = MemoryReader.open(MemoryReader.getDatabase(memory))) {
+                if (isRegexp) {
+                    String sql = "SELECT tuid, puretext FROM tuv WHERE lang=? AND tuid>? ORDER BY tuid";
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setString(1, srcLang);
+                        stmt.setString(2, after);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (tuids.size() <= pageSize && !deadline.expired() && rs.next()) {
+                                last = rs.getString(1);
+                                if (pattern.matcher(rs.getString(2)).find()) {
+                                    tuids.add(last);
+                                }
+                            }
+                        }
+                    }
+                } else {
+                    String sql = caseSensitive
+                            ? "SELECT tuid FROM tuv WHERE lang=? AND puretext GLOB ? AND tuid>? ORDER BY tuid LIMIT ?"
+                            : "SELECT tuid FROM tuv WHERE lang=? AND puretext LIKE ? AND tuid>? ORDER BY tuid LIMIT ?";
+                    String escaped = searchStr.replace("%", "\\%").replace("_", "\\_");
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setString(1, srcLang);
+                        stmt.setString(2, caseSensitive ? "*" + escaped + "*" : "%" + escaped + "%");
+                        stmt.setString(3, after);
+                        stmt.setLong(4, pageSize + 1L);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (!deadline.expired() && rs.next()) {
+                                last = rs.getString(1);
+                                tuids.add(last);
+                            }
+                        }
+                    }
+                }
+            }
+            Lock lock = pooled.readLock();
+            lock.lock();
+            try {
+                pooled.checkOpen();
+                // the next page depends on the ids read, not on the units found; a unit removed since
+                // its id was read is skipped without ending the paging
+                List<Element> tus = new ArrayList<>();
+                int used = 0;
+                while (used < tuids.size() && tus.size() < pageSize) {
+                    Element tu = pooled.getEngine().getTu(tuids.get(used++));
+                    if (tu != null) {
+                        tus.add(tu);
+                    }
+                }
+                if (used < tuids.size()) {
+                    return new Page(tus, encodeCursor(tuids.get(used - 1)));
+                }
+                if ((tuids.size() > pageSize || deadline.isPartial()) && last != null) {
+                    return new Page(tus, encodeCursor(last));
+                }
+                return new Page(tus, null);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            pooled.release();
+        }
+    }
+
+    private static Page toPage(List<Element> tus, int pageSize, String examined, Deadline deadline) {
+        // one element more than the page size is collected to know whether there is a next page
+        if (tus.size() > pageSize) {
+            List<Element> page = tus.subList(0, pageSize);
+            return new Page(page, encodeCursor(page.get(pageSize - 1).getAttributeValue("tuid")));
+        }
+        if (deadline.isPartial() && examined != null) {
+            // the walk was interrupted, the next page resumes after the last unit examined
+            return new Page(tus, encodeCursor(examined));
+        }
+        return new Page(tus, null);
+    }
+
+    private static String encodeCursor(String tuid) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(tuid.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) throws IOException {
+        if (cursor == null || cursor.isEmpty()) {
+            return "";
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid cursor");
+        }
+    }
+
+    private static Element getSeg(Element tu, String lang) throws IOException {
+        if (tu == null) {
+            return null;
+        }
+        List<Element> tuvs = tu.getChildren("tuv");
+        for (int i = 0; i < tuvs.size(); i++) {
+            Element tuv = tuvs.get(i);
+            if (lang.equals(LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang")))) {
+                return tuv.getChild("seg");
+            }
+        }
+        return null;
+    }
+
+    public static JSONObject getCacheStatistics() {
+        JSONObject result = MatchCache.getStatistics();
+        result.put("coalescedSearches", searches.getShared());
+        result.put("coalescedConcordances", concordances.getShared());
         return result;
     }
 
     public static JSONArray batchTranslate(String memory, JSONObject params)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
-        ITmEngine db = openMemory(memory);
-        JSONArray result = db.batchTranslate(params);
-        close(memory);
+        JSONArray result = new JSONArray();
+        batchTranslate(memory, params, result::put, Deadline.none());
         return result;
     }
 
+    public static int batchTranslate(String memory, JSONObject params, SegmentListener listener, Deadline deadline)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        String srcLang = params.getString("srcLang");
+        String tgtLang = params.getString("tgtLang");
+        JSONArray segments = params.getJSONArray("segments");
+        boolean caseSensitive = params.getBoolean("caseSensitiveMatches");
+        int similarity = params.optInt("similarity", BATCH_SIMILARITY);
+        int maxMatches = params.optInt("maxMatches", 0);
+
+        // repeated segments are looked up once and their matches reused for every occurrence
+        Map<String, Integer> known = new HashMap<>();
+        List<String> unique = new ArrayList<>();
+        int[] occurrences = new int[segments.length()];
+        for (int i = 0; i < segments.length(); i++) {
+            String pure = segments.getJSONObject(i).getString("pure");
+            Integer index = known.putIfAbsent(normalize(pure, caseSensitive), unique.size());
+            if (index == null) {
+                index = unique.size();
+                unique.add(pure);
+            }
+            occurrences[i] = index;
+        }
+        int[] lastUse = new int[unique.size()];
+        for (int i = 0; i < occurrences.length; i++) {
+            lastUse[occurrences[i]] = i;
+        }
+        JSONArray[] resolved = new JSONArray[unique.size()];
+
+        PooledEngine pooled = acquire(memory);
+        try {
+            loadIndexes(pooled, memory, srcLang);
+            int chunks = BATCH_PARALLELISM * 4;
+            int chunkSize = Math.max(MIN_CHUNK, (unique.size() + chunks - 1) / chunks);
+            if (BATCH_PARALLELISM == 1 || unique.size() <= chunkSize) {
+                translateChunk(pooled, memory, unique, 0, unique.size(), srcLang, tgtLang, similarity,
+                        caseSensitive, maxMatches, deadline, resolved);
+                emit(segments, occurrences, lastUse, resolved, 0, unique.size(), listener);
+                return segments.length() - unique.size();
+            }
+            // chunks are resolved in parallel and reported in request order, with a bounded number in flight
+            ExecutorService pool = getBatchPool();
+            Deque<Future<Integer>> pending = new ArrayDeque<>();
+            int next = 0;
+            int emitted = 0;
+            try {
+                while (next < unique.size() || !pending.isEmpty()) {
+                    while (next < unique.size() && pending.size() < BATCH_PARALLELISM * 2) {
+                        int start = next;
+                        int end = Math.min(unique.size(), start + chunkSize);
+                        pending.add(pool.submit(() -> {
+                            translateChunk(pooled, memory, unique, start, end, srcLang, tgtLang, similarity,
+                                    caseSensitive, maxMatches, deadline, resolved);
+                            return end;
+                        }));
+                        next = end;
+                    }
+                    int available = pending.removeFirst().get();
+                    emitted = emit(segments, occurrences, lastUse, resolved, emitted, available, listener);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                rethrow(e);
+            } finally {
+                while (!pending.isEmpty()) {
+                    pending.removeFirst().cancel(true);
+                }
+            }
+            return segments.length() - unique.size();
+        } finally {
+            pooled.release();
+        }
+    }
+
+    private static String normalize(String pure, boolean caseSensitive) {
+        if (caseSensitive) {
+            return pure;
+        }
+        // the engine compares lower case text, but also filters candidates by the length of the search string
+        String lower = pure.toLowerCase();
+        return lower.length() == pure.length() ? lower : pure;
+    }
+
+    private static int emit(JSONArray segments, int[] occurrences, int[] lastUse, JSONArray[] resolved, int from,
+            int available, SegmentListener listener) throws IOException {
+        // reports segments in order until one whose matches are not yet available is found
+        int i = from;
+        while (i < segments.length() && occurrences[i] < available) {
+            int index = occurrences[i];
+            JSONObject segment = segments.getJSONObject(i);
+            segment.put("matches", resolved[index]);
+            if (lastUse[index] == i) {
+                resolved[index] = null;
+            }
+            listener.translated(segment);
+            i++;
+        }
+        return i;
+    }
+
+    private static void translateChunk(PooledEngine pooled, String memory, List<String> unique, int start, int end,
+            String srcLang, String tgtLang, int similarity, boolean caseSensitive, int maxMatches, Deadline deadline,
+            JSONArray[] resolved)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+        Lock lock = pooled.readLock();
+        for (int i = start; i < end; i++) {
+            List<Match> matches;
+            lock.lock();
+            try {
+                pooled.checkOpen();
+                matches = search(pooled, memory, unique.get(i), srcLang, tgtLang, similarity, caseSensitive,
+                        maxMatches, deadline);
+            } finally {
+                lock.unlock();
+            }
+            JSONArray array = new JSONArray();
+            for (int j = 0; j < matches.size(); j++) {
+                array.put(matches.get(j).toJSON());
+            }
+            resolved[i] = array;
+        }
+    }
+
+    private static ExecutorService getImportPool() {
+        if (importPool == null) {
+            synchronized (TmManager.class) {
+                if (importPool == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    importPool = Executors.newFixedThreadPool(IMPORT_WORKERS, r -> {
+                        Thread thread = new Thread(r, "RemoteTM import worker " + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return importPool;
+    }
+
+    private static ExecutorService getImportWriters() {
+        // one writer per running import, their number is bounded by the import jobs
+        if (importWriters == null) {
+            synchronized (TmManager.class) {
+                if (importWriters == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    importWriters = Executors.newCachedThreadPool(r -> {
+                        Thread thread = new Thread(r, "RemoteTM import writer " + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return importWriters;
+    }
+
+    private static ExecutorService getIndexLoaders() {
+        // one loader per language being indexed, their number is bounded by the languages searched
+        if (indexLoaders == null) {
+            synchronized (TmManager.class) {
+                if (indexLoaders == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    indexLoaders = Executors.newCachedThreadPool(r -> {
+                        Thread thread = new Thread(r, "RemoteTM index loader " + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return indexLoaders;
+    }
+
+    private static ExecutorService getBatchPool() {
+        if (batchPool == null) {
+            synchronized (TmManager.class) {
+                if (batchPool == null) {
+                    batchPool = new ForkJoinPool(BATCH_PARALLELISM);
+                }
+            }
+        }
+        return batchPool;
+    }
+
 }
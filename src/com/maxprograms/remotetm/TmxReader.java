@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.maxprograms.xml.Element;
+
+class TmxReader implements Closeable {
+
+    // elements that only contain other elements; whitespace between their children is dropped
+    private static final Set<String> CONTAINERS = Set.of("tmx", "header", "body", "tu", "tuv");
+
+    private static final XMLInputFactory factory = createFactory();
+
+    private XMLStreamReader reader;
+
+    public TmxReader(InputStream input) throws IOException {
+        try {
+            reader = factory.createXMLStreamReader(input);
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory result = XMLInputFactory.newInstance();
+        // TMX only needs the predefined entities, the DTD is never read
+        result.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        result.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        result.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return result;
+    }
+
+    public Element next() throws IOException {
+        // returns the next <tu> of the document, or null at the end
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "tu".equals(reader.getLocalName())) {
+                    return readElement();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private Element readElement() throws XMLStreamException {
+        Element element = new Element(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        boolean container = CONTAINERS.contains(element.getName());
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    element.addContent(readElement());
+                    break;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE:
+                    if (!container || !reader.isWhiteSpace()) {
+                        element.addContent(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    return element;
+                default:
+                    // comments and processing instructions are not kept
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document");
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
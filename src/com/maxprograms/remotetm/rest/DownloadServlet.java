@@ -12,14 +12,23 @@
 
 package com.maxprograms.remotetm.rest;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -35,6 +44,34 @@ public class DownloadServlet extends HttpServlet {
     private static final long serialVersionUID = -3142235158770712461L;
     private static Logger logger = System.getLogger(DownloadServlet.class.getName());
 
+    // a file is kept this long after it was written or last requested, so that an interrupted download can resume
+    private static final long RETENTION = Long.getLong("remotetm.downloadRetention", 3600000L);
+
+    private static final Map<File, Long> served = new ConcurrentHashMap<>();
+    private transient ScheduledExecutorService cleaner;
+
+    @Override
+    public void init() throws ServletException {
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "RemoteTM download cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(60000L, RETENTION / 4);
+        cleaner.execute(DownloadServlet::sweep);
+        cleaner.scheduleWithFixedDelay(DownloadServlet::cleanup, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static void register(File file) {
+        // a new or rewritten file starts its retention period now, even if it is never downloaded
+        served.put(file, System.currentTimeMillis());
+    }
+
+    @Override
+    public void destroy() {
+        cleaner.shutdownNow();
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -44,28 +81,13 @@ public class DownloadServlet extends HttpServlet {
             }
             String session = request.getParameter("session");
             String file = request.getParameter("file");
-            if (AuthorizeServlet.sessionActive(session)) {
+            if (AuthorizeServlet.sessionActive(session) && file != null) {
                 File tempFolder = new File(RemoteTM.getWorkFolder(), "tmp");
                 File tmx = new File(tempFolder, file);
-                if (tmx.exists()) {
-                    response.addHeader("Cache-Control", "no-cache, no-store, must-revalidate");
-                    response.addHeader("Pragma", "no-cache");
-                    response.addHeader("Expires", "-1");
-                    try (ServletOutputStream op = response.getOutputStream()) {
-                        response.setContentType("text/xml;charset=utf-8");
-                        response.setStatus(200);
-                        response.setContentLength((int) tmx.length());
-                        response.setHeader("Content-Disposition", "attachment; filename=\"" + tmx.getName() + "\"");
-                        byte[] bbuf = new byte[2048];
-                        int length = 0;
-                        try (DataInputStream in = new DataInputStream(new FileInputStream(tmx))) {
-                            while ((length = in.read(bbuf)) != -1) {
-                                op.write(bbuf, 0, length);
-                            }
-                        }
-                        op.flush();
-                    }
-                    Files.delete(tmx.toPath());
+                // only files of the temporary folder can be downloaded
+                if (tmx.getCanonicalFile().getParentFile().equals(tempFolder.getCanonicalFile()) && tmx.isFile()) {
+                    sendFile(tmx, request, response);
+                    return;
                 }
             }
             Utils.denyAccess(response);
@@ -73,4 +95,145 @@ public class DownloadServlet extends HttpServlet {
             logger.log(Level.ERROR, e);
         }
     }
+
+    private static void sendFile(File tmx, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        served.put(tmx, System.currentTimeMillis());
+        long length = tmx.length();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(tmx.lastModified()) + "\"";
+        response.addHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+        response.addHeader("Pragma", "no-cache");
+        response.addHeader("Expires", "-1");
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", tmx.lastModified());
+        response.setContentType("text/xml;charset=utf-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + tmx.getName() + "\"");
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        if (range != null && isCurrent(request, etag, tmx.lastModified())) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            }
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        response.setContentLengthLong(end - start + 1);
+        try (FileChannel channel = FileChannel.open(tmx.toPath(), StandardOpenOption.READ);
+                ServletOutputStream out = response.getOutputStream()) {
+            // the file is handed to the container without copying it through a buffer of our own
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = end - start + 1;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            out.flush();
+        } finally {
+            served.put(tmx, System.currentTimeMillis());
+        }
+    }
+
+    private static boolean isCurrent(HttpServletRequest request, String etag, long lastModified) {
+        // without If-Range the range applies; with it, only if the file is still the one the client has
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader("If-Range") / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static long[] parseRange(String range, long length) {
+        // returns {start, end} for a single satisfiable range, an empty array to send the whole file,
+        // or null when the range cannot be satisfied
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            // other units and multiple ranges are ignored
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return null;
+                }
+                return new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (end < start) {
+                // not a valid range
+                return new long[0];
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[] { start, Math.min(end, length - 1) };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static void sweep() {
+        // files left from before a restart are not registered, their age comes from the file itself
+        try {
+            File tempFolder = new File(RemoteTM.getWorkFolder(), "tmp");
+            File[] files = tempFolder.listFiles(File::isFile);
+            if (files == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < files.length; i++) {
+                if (!served.containsKey(files[i]) && now - files[i].lastModified() > RETENTION) {
+                    Files.deleteIfExists(files[i].toPath());
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error cleaning temporary folder", e);
+        }
+    }
+
+    private static void cleanup() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry<File, Long>> it = served.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<File, Long> entry = it.next();
+            if (now - entry.getValue() > RETENTION) {
+                try {
+                    Files.deleteIfExists(entry.getKey().toPath());
+                    it.remove();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error removing " + entry.getKey().getAbsolutePath(), e);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.json.JSONObject;
+import org.xml.sax.SAXException;
+
+import com.maxprograms.remotetm.Constants;
+import com.maxprograms.remotetm.DbManager;
+import com.maxprograms.remotetm.ExportFilter;
+import com.maxprograms.remotetm.TmManager;
+import com.maxprograms.remotetm.models.User;
+import com.maxprograms.remotetm.utils.Utils;
+import com.maxprograms.swordfish.models.Memory;
+
+public class ExportServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 6038414879317252904L;
+
+    private static Logger logger = System.getLogger(ExportServlet.class.getName());
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        try {
+            if (!Utils.isSafe(request, response)) {
+                return;
+            }
+            String session = request.getParameter("session");
+            if (AuthorizeServlet.sessionActive(session)) {
+                try {
+                    exportMemory(session, request, response);
+                } catch (IOException | SQLException | NoSuchAlgorithmException | SAXException
+                        | ParserConfigurationException | URISyntaxException e) {
+                    logger.log(Level.ERROR, "Export error", e);
+                    if (response.isCommitted()) {
+                        // the container aborts the connection, the client never sees the end of the response
+                        throw new ServletException(e.getMessage(), e);
+                    }
+                    response.reset();
+                    JSONObject result = new JSONObject();
+                    result.put(Constants.STATUS, Constants.ERROR);
+                    result.put(Constants.REASON, e.getMessage());
+                    Utils.writeResponse(result, response, 200);
+                }
+                return;
+            }
+            Utils.denyAccess(response);
+        } catch (IOException | URISyntaxException e) {
+            logger.log(Level.ERROR, e);
+        }
+    }
+
+    private static void exportMemory(String session, HttpServletRequest request, HttpServletResponse response)
+            throws SQLException, NoSuchAlgorithmException, IOException, SAXException, ParserConfigurationException,
+            URISyntaxException {
+        String memory = request.getParameter("memory");
+        String srcLang = request.getParameter("srcLang");
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive() && memory != null) {
+            String owner = manager.getOwner(memory);
+            if (Constants.SYSTEM_ADMINISTRATOR.equals(who.getRole()) || who.getId().equals(owner)) {
+                Memory mem = manager.getMemory(memory);
+                Set<String> languages = getLanguages(request.getParameter("languages"), memory);
+                ExportFilter filter = new ExportFilter(request.getParameter("changedSince"),
+                        request.getParameter("project"), request.getParameter("client"),
+                        request.getParameter("subject"), request.getParameter("creationId"));
+                String name = mem.getName().replace('"', '_') + ".tmx";
+                response.setContentType("text/xml;charset=utf-8");
+                response.addHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+                response.addHeader("Pragma", "no-cache");
+                response.addHeader("Expires", "-1");
+                response.addHeader("Vary", "Accept-Encoding");
+                boolean gzip = acceptsGzip(request);
+                if (gzip) {
+                    response.setHeader("Content-Encoding", "gzip");
+                }
+                response.setHeader("Content-Disposition", "attachment; filename=\"" + name + "\"");
+                response.setStatus(200);
+                // the length is unknown, the container sends the document in chunks as it is written
+                OutputStream out = response.getOutputStream();
+                if (gzip) {
+                    out = new GZIPOutputStream(out, 65536);
+                }
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+                TmManager.exportMemory(memory, languages, srcLang != null ? srcLang : "*all*", filter, writer);
+                // not closed when the export fails, a truncated document must not get its gzip trailer
+                writer.close();
+                if (Boolean.parseBoolean(request.getParameter("close"))) {
+                    TmManager.close(memory);
+                }
+                return;
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private static Set<String> getLanguages(String list, String memory)
+            throws SQLException, IOException, URISyntaxException {
+        if (list == null || list.isBlank()) {
+            return TmManager.getAllLanguages(memory);
+        }
+        Set<String> languages = new TreeSet<>();
+        String[] parts = list.split(",");
+        for (int i = 0; i < parts.length; i++) {
+            if (!parts[i].isBlank()) {
+                languages.add(parts[i].trim());
+            }
+        }
+        return languages;
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String accepted = request.getHeader("Accept-Encoding");
+        if (accepted == null) {
+            return false;
+        }
+        String[] codings = accepted.split(",");
+        for (int i = 0; i < codings.length; i++) {
+            String[] parts = codings[i].trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                // "gzip;q=0" means that gzip must not be used
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+}
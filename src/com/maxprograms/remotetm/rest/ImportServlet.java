@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm.rest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.maxprograms.remotetm.Constants;
+import com.maxprograms.remotetm.DbManager;
+import com.maxprograms.remotetm.ImportJob;
+import com.maxprograms.remotetm.JobManager;
+import com.maxprograms.remotetm.TmManager;
+import com.maxprograms.remotetm.models.Permission;
+import com.maxprograms.remotetm.models.User;
+import com.maxprograms.remotetm.utils.MultipartParser;
+import com.maxprograms.remotetm.utils.Utils;
+
+import org.json.JSONObject;
+
+public class ImportServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -2231467809145772370L;
+
+    private static Logger logger = System.getLogger(ImportServlet.class.getName());
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        try {
+            if (!Utils.isSafe(request, response)) {
+                return;
+            }
+            JSONObject result = new JSONObject();
+            String session = request.getHeader("Session");
+            if (AuthorizeServlet.sessionActive(session)) {
+                try {
+                    ImportJob job = importTMX(session, request);
+                    result.put("job", job.toJSON());
+                    if (ImportJob.DONE.equals(job.getState())) {
+                        result.put(Constants.STATUS, Constants.OK);
+                    } else {
+                        result.put(Constants.STATUS, Constants.ERROR);
+                        result.put(Constants.REASON,
+                                ImportJob.CANCELLED.equals(job.getState()) ? "Import cancelled" : getReason(job));
+                    }
+                } catch (IOException | SQLException | NoSuchAlgorithmException e) {
+                    result.put(Constants.STATUS, Constants.ERROR);
+                    result.put(Constants.REASON, e.getMessage());
+                    logger.log(Level.ERROR, "File import error", e);
+                }
+                Utils.writeResponse(result, response, 200);
+                return;
+            }
+            Utils.denyAccess(response);
+        } catch (IOException | URISyntaxException e) {
+            logger.log(Level.ERROR, e);
+        }
+    }
+
+    private ImportJob importTMX(String session, HttpServletRequest request)
+            throws SQLException, NoSuchAlgorithmException, IOException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        String memory = request.getParameter("memory");
+        if (who != null && who.isActive() && memory != null) {
+            Permission p = manager.getPermission(memory, who.getId());
+            if (p.canWrite()) {
+                String contentType = request.getContentType();
+                boolean multipart = contentType != null && contentType.startsWith("multipart/");
+                String file = request.getParameter("file");
+                String id = request.getParameter("job");
+                return JobManager.execute(id, memory, who.getId(), file != null ? file : "", (ImportJob running) -> {
+                    try (InputStream body = request.getInputStream()) {
+                        InputStream input = body;
+                        boolean zipped = "application/zip".equals(contentType);
+                        if (multipart) {
+                            // the first form attachment is imported while it arrives
+                            MultipartParser parser = new MultipartParser(body,
+                                    MultipartParser.getBoundary(contentType), 0);
+                            if (!parser.nextPart()) {
+                                throw new IOException("Missing file");
+                            }
+                            zipped = parser.isZipped();
+                            input = parser.getInputStream();
+                        }
+                        TmManager.importTMX(memory, new BufferedInputStream(input), zipped,
+                                getParameter(request, "project"),
+                                getParameter(request, "client"), getParameter(request, "subject"),
+                                Boolean.parseBoolean(request.getParameter("incremental")), running);
+                    }
+                    if (Boolean.parseBoolean(request.getParameter("close"))) {
+                        TmManager.close(memory);
+                    }
+                });
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private static String getReason(ImportJob job) {
+        return job.getReason() != null ? job.getReason() : "Import failed";
+    }
+
+    private static String getParameter(HttpServletRequest request, String name) {
+        String value = request.getParameter(name);
+        return value != null ? value : "";
+    }
+}
@@ -19,10 +19,12 @@ import java.lang.System.Logger.Level;
 import java.net.URISyntaxException;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 import javax.mail.MessagingException;
 import javax.servlet.ServletException;
@@ -38,11 +40,16 @@ import org.xml.sax.SAXException;
 
 import com.maxprograms.remotetm.Constants;
 import com.maxprograms.remotetm.DbManager;
+import com.maxprograms.remotetm.Deadline;
+import com.maxprograms.remotetm.ExportFilter;
+import com.maxprograms.remotetm.ImportJob;
+import com.maxprograms.remotetm.JobManager;
 import com.maxprograms.remotetm.RemoteTM;
 import com.maxprograms.remotetm.TmManager;
 import com.maxprograms.remotetm.models.EmailServer;
 import com.maxprograms.remotetm.models.Permission;
 import com.maxprograms.remotetm.models.User;
+import com.maxprograms.remotetm.utils.NDJSONWriter;
 import com.maxprograms.remotetm.utils.SendMail;
 import com.maxprograms.remotetm.utils.Utils;
 import com.maxprograms.swordfish.models.Memory;
@@ -54,6 +61,8 @@ public class MemoriesServlet extends HttpServlet {
     private static final long serialVersionUID = 6894498215572036825L;
     private static Logger logger = System.getLogger(MemoriesServlet.class.getName());
     private static final String MEMORY = "memory";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) {
@@ -105,7 +114,13 @@ public class MemoriesServlet extends HttpServlet {
                             addMemory(session, body);
                             break;
                         case "importTMX":
-                            importTMX(session, body);
+                            result.put("job", importTMX(session, body));
+                            break;
+                        case "jobStatus":
+                            result.put("job", jobStatus(session, body));
+                            break;
+                        case "cancelJob":
+                            result.put("job", cancelJob(session, body));
                             break;
                         case "getProjects":
                             result.put("projects", getProperty(session, "project"));
@@ -149,23 +164,42 @@ public class MemoriesServlet extends HttpServlet {
                         case "getTu":
                             result.put("tu", getTu(session, body).toString());
                             break;
+                        case "storeTus":
+                            result.put("stored", storeTus(session, body));
+                            break;
                         case "removeTu":
                             removeTu(session, body);
                             break;
                         case "commit":
                             commit(session, body);
                             break;
+                        case "setCommitPolicy":
+                            result.put("policy", setCommitPolicy(session, body));
+                            break;
+                        case "getCommitPolicy":
+                            result.put("policy", getCommitPolicy(session, body));
+                            break;
                         case "searchTranslation":
-                            result.put("matches", searchTranslation(session, body));
+                            searchTranslation(session, body, result);
+                            break;
+                        case "searchTranslationMulti":
+                            result.put("matches", searchTranslationMulti(session, body));
                             break;
                         case "searchAll":
-                            result.put("tus", searchAll(session, body));
+                            searchAll(session, body, result);
                             break;
                         case "concordanceSearch":
-                            result.put("tus", concordanceSearch(session, body));
+                            concordanceSearch(session, body, result);
                             break;
                         case "batchTranslate":
-                            result.put("matches", batchTranslate(session, body));
+                            if (body.optBoolean("stream", false)) {
+                                streamBatchTranslate(session, body, response);
+                                return;
+                            }
+                            batchTranslate(session, body, result);
+                            break;
+                        case "cacheStatistics":
+                            result.put("cache", cacheStatistics(session));
                             break;
                         default:
                             Utils.denyAccess(response);
@@ -209,7 +243,11 @@ public class MemoriesServlet extends HttpServlet {
                 } else {
                     languages = TmManager.getAllLanguages(memory);
                 }
-                String file = TmManager.exportMemory(memory, mem.getName(), languages, params.getString("srcLang"));
+                ExportFilter filter = new ExportFilter(params.optString("changedSince"), params.optString("project"),
+                        params.optString("client"), params.optString("subject"), params.optString("creationId"));
+                String file = TmManager.exportMemory(memory, mem.getName(), languages, params.getString("srcLang"),
+                        filter);
+                DownloadServlet.register(new File(new File(RemoteTM.getWorkFolder(), "tmp"), file));
                 if (params.has("close") && params.getBoolean("close")) {
                     TmManager.close(memory);
                 }
@@ -380,13 +418,58 @@ public class MemoriesServlet extends HttpServlet {
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canWrite()) {
                 Element tu = Utils.toElement(params.getString("tu"));
-                TmManager.storeTu(memory, tu);
+                boolean durable = params.optBoolean("durable", false);
+                CompletableFuture<Void> written = TmManager.storeTu(memory, tu, durable);
+                if (durable) {
+                    TmManager.awaitCommit(written);
+                }
                 return;
             }
         }
         throw new IOException(Constants.DENIED);
     }
 
+    private int storeTus(String session, JSONObject params)
+            throws NoSuchAlgorithmException, IOException, SQLException, SAXException, ParserConfigurationException,
+            URISyntaxException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive()) {
+            String memory = params.getString(MEMORY);
+            Permission p = manager.getPermission(memory, who.getId());
+            if (p.canWrite()) {
+                List<Element> tus = new ArrayList<>();
+                if (params.has("tus")) {
+                    JSONArray array = params.getJSONArray("tus");
+                    for (int i = 0; i < array.length(); i++) {
+                        tus.add(Utils.toElement(array.getString(i)));
+                    }
+                }
+                if (params.has("tmx")) {
+                    tus.addAll(parseTus(params.getString("tmx")));
+                }
+                return TmManager.storeTus(memory, tus);
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private static List<Element> parseTus(String tmx) throws SAXException, IOException, ParserConfigurationException {
+        // accepts a complete TMX document or just a sequence of <tu> elements
+        String text = tmx.strip();
+        Element root = text.startsWith("<?xml") || text.startsWith("<!DOCTYPE") || text.startsWith("<tmx")
+                ? Utils.toElement(text)
+                : Utils.toElement("<body>" + text + "</body>");
+        if ("tmx".equals(root.getName())) {
+            Element body = root.getChild("body");
+            if (body == null) {
+                throw new IOException("Missing <body> element");
+            }
+            root = body;
+        }
+        return root.getChildren("tu");
+    }
+
     private void removeTu(String session, JSONObject params)
             throws NoSuchAlgorithmException, IOException, SQLException, JSONException, SAXException,
             ParserConfigurationException, URISyntaxException {
@@ -396,14 +479,18 @@ public class MemoriesServlet extends HttpServlet {
             String memory = params.getString(MEMORY);
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canWrite()) {
-                TmManager.removeTu(memory, params.getString("tuid"));
+                boolean durable = params.optBoolean("durable", false);
+                CompletableFuture<Void> written = TmManager.removeTu(memory, params.getString("tuid"), durable);
+                if (durable) {
+                    TmManager.awaitCommit(written);
+                }
                 return;
             }
         }
         throw new IOException(Constants.DENIED);
     }
 
-    private JSONArray searchTranslation(String session, JSONObject params)
+    private void searchTranslation(String session, JSONObject params, JSONObject result)
             throws IOException, SAXException, ParserConfigurationException, SQLException, NoSuchAlgorithmException,
             JSONException, URISyntaxException {
         DbManager manager = DbManager.getInstance();
@@ -412,20 +499,48 @@ public class MemoriesServlet extends HttpServlet {
             String memory = params.getString(MEMORY);
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canRead()) {
+                Deadline deadline = getDeadline(params);
                 List<Match> matches = TmManager.searchTranslation(memory, params.getString("searchStr"),
                         params.getString("srcLang"), params.getString("tgtLang"), params.getInt("similarity"),
-                        params.getBoolean("caseSensitive"));
+                        params.getBoolean("caseSensitive"), params.optInt("maxMatches", 0), deadline);
                 JSONArray array = new JSONArray();
                 for (int i = 0; i < matches.size(); i++) {
                     array.put(matches.get(i).toJSON());
                 }
-                return array;
+                result.put("matches", array);
+                putPartial(deadline, result);
+                return;
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private JSONArray searchTranslationMulti(String session, JSONObject params)
+            throws IOException, SAXException, ParserConfigurationException, SQLException, NoSuchAlgorithmException,
+            JSONException, URISyntaxException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive()) {
+            JSONArray memories = params.getJSONArray("memories");
+            Set<String> checked = new TreeSet<>();
+            for (int i = 0; i < memories.length(); i++) {
+                String memory = memories.getJSONObject(i).getString(MEMORY);
+                if (!checked.contains(memory)) {
+                    Permission p = manager.getPermission(memory, who.getId());
+                    if (!p.canRead()) {
+                        throw new IOException(Constants.DENIED);
+                    }
+                    checked.add(memory);
+                }
             }
+            return TmManager.searchTranslationMulti(memories, params.getString("searchStr"),
+                    params.getString("srcLang"), params.getString("tgtLang"), params.getInt("similarity"),
+                    params.getBoolean("caseSensitive"), params.optInt("limit", 20));
         }
         throw new IOException(Constants.DENIED);
     }
 
-    private JSONArray searchAll(String session, JSONObject params)
+    private void searchAll(String session, JSONObject params, JSONObject result)
             throws IOException, SAXException, ParserConfigurationException, SQLException, NoSuchAlgorithmException,
             JSONException, URISyntaxException {
         DbManager manager = DbManager.getInstance();
@@ -434,19 +549,27 @@ public class MemoriesServlet extends HttpServlet {
             String memory = params.getString(MEMORY);
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canRead()) {
-                List<Element> matches = TmManager.searchAll(memory, params.getString("searchStr"),
-                        params.getString("srcLang"), params.getInt("similarity"), params.getBoolean("caseSensitive"));
-                JSONArray array = new JSONArray();
-                for (int i = 0; i < matches.size(); i++) {
-                    array.put(matches.get(i).toString());
+                Deadline deadline = getDeadline(params);
+                if (isPaged(params)) {
+                    TmManager.Page page = TmManager.searchAllPage(memory, params.getString("searchStr"),
+                            params.getString("srcLang"), params.getInt("similarity"),
+                            params.getBoolean("caseSensitive"), params.optString("cursor", ""), getPageSize(params),
+                            deadline);
+                    putPage(page, result);
+                } else {
+                    List<Element> matches = TmManager.searchAll(memory, params.getString("searchStr"),
+                            params.getString("srcLang"), params.getInt("similarity"),
+                            params.getBoolean("caseSensitive"), deadline);
+                    result.put("tus", toArray(matches));
                 }
-                return array;
+                putPartial(deadline, result);
+                return;
             }
         }
         throw new IOException(Constants.DENIED);
     }
 
-    private JSONArray concordanceSearch(String session, JSONObject params)
+    private void concordanceSearch(String session, JSONObject params, JSONObject result)
             throws IOException, SAXException, ParserConfigurationException, SQLException, NoSuchAlgorithmException,
             JSONException, URISyntaxException {
         DbManager manager = DbManager.getInstance();
@@ -455,14 +578,96 @@ public class MemoriesServlet extends HttpServlet {
             String memory = params.getString(MEMORY);
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canRead()) {
-                List<Element> matches = TmManager.concordanceSearch(memory, params.getString("searchStr"),
-                        params.getString("srcLang"), params.getInt("limit"), params.getBoolean("isRegexp"),
-                        params.getBoolean("caseSensitive"));
-                JSONArray array = new JSONArray();
-                for (int i = 0; i < matches.size(); i++) {
-                    array.put(matches.get(i).toString());
+                Deadline deadline = getDeadline(params);
+                if (isPaged(params)) {
+                    TmManager.Page page = TmManager.concordancePage(memory, params.getString("searchStr"),
+                            params.getString("srcLang"), params.getBoolean("isRegexp"),
+                            params.getBoolean("caseSensitive"), params.optString("cursor", ""), getPageSize(params),
+                            deadline);
+                    putPage(page, result);
+                } else {
+                    List<Element> matches = TmManager.concordanceSearch(memory, params.getString("searchStr"),
+                            params.getString("srcLang"), params.getInt("limit"), params.getBoolean("isRegexp"),
+                            params.getBoolean("caseSensitive"), deadline);
+                    result.put("tus", toArray(matches));
                 }
-                return array;
+                putPartial(deadline, result);
+                return;
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private static Deadline getDeadline(JSONObject params) throws IOException {
+        long deadlineMs = params.optLong("deadlineMs", 0);
+        if (deadlineMs < 0) {
+            throw new IOException("Invalid deadline");
+        }
+        return Deadline.after(deadlineMs);
+    }
+
+    private static void putPartial(Deadline deadline, JSONObject result) {
+        if (deadline.isPartial()) {
+            result.put("partial", true);
+        }
+    }
+
+    private static boolean isPaged(JSONObject params) {
+        return params.has("pageSize") || params.has("cursor");
+    }
+
+    private static int getPageSize(JSONObject params) throws IOException {
+        int pageSize = params.optInt("pageSize", params.optInt("limit", DEFAULT_PAGE_SIZE));
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IOException("Invalid page size");
+        }
+        return pageSize;
+    }
+
+    private static void putPage(TmManager.Page page, JSONObject result) {
+        result.put("tus", toArray(page.tus()));
+        if (page.nextCursor() != null) {
+            result.put("nextCursor", page.nextCursor());
+        }
+    }
+
+    private static JSONArray toArray(List<Element> tus) {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < tus.size(); i++) {
+            array.put(tus.get(i).toString());
+        }
+        return array;
+    }
+
+    private JSONObject setCommitPolicy(String session, JSONObject params)
+            throws NoSuchAlgorithmException, IOException, SQLException, URISyntaxException {
+        String memory = params.getString(MEMORY);
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        String owner = manager.getOwner(memory);
+        if (who != null && who.isActive()
+                && (Constants.SYSTEM_ADMINISTRATOR.equals(who.getRole()) || who.getId().equals(owner))) {
+            JSONObject policy = TmManager.getCommitPolicy(memory);
+            int maxWrites = params.optInt("maxWrites", policy.getInt("maxWrites"));
+            long maxDelay = params.optLong("maxDelay", policy.getLong("maxDelay"));
+            if (maxWrites < 0 || maxDelay < 0) {
+                throw new IOException("Invalid commit policy");
+            }
+            TmManager.setCommitPolicy(memory, maxWrites, maxDelay);
+            return TmManager.getCommitPolicy(memory);
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private JSONObject getCommitPolicy(String session, JSONObject params)
+            throws NoSuchAlgorithmException, IOException, SQLException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive()) {
+            String memory = params.getString(MEMORY);
+            Permission p = manager.getPermission(memory, who.getId());
+            if (p.canRead()) {
+                return TmManager.getCommitPolicy(memory);
             }
         }
         throw new IOException(Constants.DENIED);
@@ -483,7 +688,7 @@ public class MemoriesServlet extends HttpServlet {
         throw new IOException(Constants.DENIED);
     }
 
-    private void importTMX(String session, JSONObject params)
+    private String importTMX(String session, JSONObject params)
             throws SQLException, NoSuchAlgorithmException, IOException {
         DbManager manager = DbManager.getInstance();
         User who = manager.getUser(AuthorizeServlet.getUser(session));
@@ -492,41 +697,63 @@ public class MemoriesServlet extends HttpServlet {
             Memory mem = manager.getMemory(memory);
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canWrite()) {
-                Thread thread = new Thread() {
-                    @Override
-                    public void run() {
-                        try {
-                            File tempDir = new File(RemoteTM.getWorkFolder(), "tmp");
-                            File tmx = new File(tempDir, params.getString("file"));
-                            int imported = TmManager.storeTMX(memory, tmx.getAbsolutePath(),
-                                    params.getString("project"), params.getString("client"),
-                                    params.getString("subject"));
-                            String text = "\nDear " + who.getName() + ",\n\nYour TMX file has been processed and "
-                                    + imported + " entries were added to \"" + mem.getName()
-                                    + "\".\n\nThanks for using RemoteTM.\n\n";
-                            String html = "<p>Dear " + who.getName() + ",</p>"
-                                    + "<p>Your TMX file has been processed and <b>" + imported
-                                    + "</b> entries were added to <b>" + mem.getName()
-                                    + "</b>.</p><p>Thanks for using RemoteTM.</p>";
-                            try {
-                                EmailServer server = Utils.getEmailServer();
-                                SendMail sender = new SendMail(server);
-                                sender.sendMail(new String[] { who.getEmail() }, new String[] {}, new String[] {},
-                                        "[RemoteTM] TMX imported", text, html);
-                            } catch (IOException | MessagingException e) {
-                                logger.log(Level.ERROR, "Error sending mail", e);
-                            }
-                            if (params.has("close") && params.getBoolean("close")) {
-                                TmManager.close(memory);
-                            }
-                        } catch (SQLException | JSONException | IOException | SAXException
-                                | ParserConfigurationException | URISyntaxException ex) {
-                            logger.log(Level.ERROR, "Error importing TMX", ex);
-                        }
+                String file = params.getString("file");
+                File tempDir = new File(RemoteTM.getWorkFolder(), "tmp");
+                File tmx = new File(tempDir, file);
+                ImportJob job = JobManager.submit(memory, who.getId(), file, (ImportJob running) -> {
+                    int imported = TmManager.importTMX(memory, tmx, params.getString("project"),
+                            params.getString("client"), params.getString("subject"),
+                            params.optBoolean("incremental"), running);
+                    String text = "\nDear " + who.getName() + ",\n\nYour TMX file has been processed and "
+                            + imported + " entries were added to \"" + mem.getName()
+                            + "\".\n\nThanks for using RemoteTM.\n\n";
+                    String html = "<p>Dear " + who.getName() + ",</p>"
+                            + "<p>Your TMX file has been processed and <b>" + imported
+                            + "</b> entries were added to <b>" + mem.getName()
+                            + "</b>.</p><p>Thanks for using RemoteTM.</p>";
+                    try {
+                        EmailServer server = Utils.getEmailServer();
+                        SendMail sender = new SendMail(server);
+                        sender.sendMail(new String[] { who.getEmail() }, new String[] {}, new String[] {},
+                                "[RemoteTM] TMX imported", text, html);
+                    } catch (IOException | MessagingException e) {
+                        logger.log(Level.ERROR, "Error sending mail", e);
                     }
-                };
-                thread.start();
-                return;
+                    if (params.has("close") && params.getBoolean("close")) {
+                        TmManager.close(memory);
+                    }
+                });
+                return job.getId();
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private JSONObject jobStatus(String session, JSONObject params)
+            throws SQLException, NoSuchAlgorithmException, IOException {
+        return getJob(session, params).toJSON();
+    }
+
+    private JSONObject cancelJob(String session, JSONObject params)
+            throws SQLException, NoSuchAlgorithmException, IOException {
+        ImportJob job = getJob(session, params);
+        if (!JobManager.cancel(job.getId())) {
+            throw new IOException("Job already finished");
+        }
+        return job.toJSON();
+    }
+
+    private ImportJob getJob(String session, JSONObject params)
+            throws SQLException, NoSuchAlgorithmException, IOException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive()) {
+            ImportJob job = JobManager.getJob(params.getString("job"));
+            if (job == null) {
+                throw new IOException("Unknown job");
+            }
+            if (Constants.SYSTEM_ADMINISTRATOR.equals(who.getRole()) || who.getId().equals(job.getUser())) {
+                return job;
             }
         }
         throw new IOException(Constants.DENIED);
@@ -556,7 +783,7 @@ public class MemoriesServlet extends HttpServlet {
         throw new IOException(Constants.DENIED);
     }
 
-    private JSONArray batchTranslate(String session, JSONObject params)
+    private void batchTranslate(String session, JSONObject params, JSONObject result)
             throws NoSuchAlgorithmException, IOException, SQLException, SAXException, ParserConfigurationException,
             URISyntaxException {
         DbManager manager = DbManager.getInstance();
@@ -565,9 +792,56 @@ public class MemoriesServlet extends HttpServlet {
             String memory = params.getString(MEMORY);
             Permission p = manager.getPermission(memory, who.getId());
             if (p.canRead()) {
-                return TmManager.batchTranslate(memory, params);
+                Deadline deadline = getDeadline(params);
+                JSONArray matches = new JSONArray();
+                int saved = TmManager.batchTranslate(memory, params, matches::put, deadline);
+                result.put("matches", matches);
+                result.put("lookupsSaved", saved);
+                putPartial(deadline, result);
+                return;
+            }
+        }
+        throw new IOException(Constants.DENIED);
+    }
+
+    private void streamBatchTranslate(String session, JSONObject params, HttpServletResponse response)
+            throws NoSuchAlgorithmException, IOException, SQLException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive()) {
+            String memory = params.getString(MEMORY);
+            Permission p = manager.getPermission(memory, who.getId());
+            if (p.canRead()) {
+                NDJSONWriter writer = new NDJSONWriter(response, params.optInt("flushEvery", 50));
+                JSONObject status = new JSONObject();
+                try {
+                    Deadline deadline = getDeadline(params);
+                    int saved = TmManager.batchTranslate(memory, params, writer, deadline);
+                    status.put("lookupsSaved", saved);
+                    putPartial(deadline, status);
+                    status.put(Constants.STATUS, Constants.OK);
+                } catch (Exception e) {
+                    logger.log(Level.ERROR, e);
+                    status.put(Constants.STATUS, Constants.ERROR);
+                    status.put(Constants.REASON, e.getMessage());
+                }
+                try {
+                    writer.write(status);
+                } finally {
+                    writer.close();
+                }
+                return;
             }
         }
         throw new IOException(Constants.DENIED);
     }
-}
\ No newline at end of file
+
+    private JSONObject cacheStatistics(String session) throws NoSuchAlgorithmException, IOException, SQLException {
+        DbManager manager = DbManager.getInstance();
+        User who = manager.getUser(AuthorizeServlet.getUser(session));
+        if (who != null && who.isActive() && Constants.SYSTEM_ADMINISTRATOR.equals(who.getRole())) {
+            return TmManager.getCacheStatistics();
+        }
+        throw new IOException(Constants.DENIED);
+    }
+}
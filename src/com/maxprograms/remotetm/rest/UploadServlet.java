@@ -12,17 +12,17 @@
 
 package com.maxprograms.remotetm.rest;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -34,6 +34,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.maxprograms.remotetm.Constants;
 import com.maxprograms.remotetm.RemoteTM;
+import com.maxprograms.remotetm.utils.MultipartParser;
 import com.maxprograms.remotetm.utils.Utils;
 
 import org.json.JSONObject;
@@ -44,6 +45,10 @@ public class UploadServlet extends HttpServlet {
 
     private static Logger logger = System.getLogger(UploadServlet.class.getName());
 
+    // largest accepted upload in bytes, 0 for no limit
+    private static final long MAX_UPLOAD = Long.getLong("remotetm.maxUpload", 8L * 1024 * 1024 * 1024);
+    private static final long FORM_OVERHEAD = 65536;
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -54,72 +59,43 @@ public class UploadServlet extends HttpServlet {
             JSONObject result = new JSONObject();
             String session = request.getHeader("Session");
             if (AuthorizeServlet.sessionActive(session)) {
-                boolean zipped = request.getHeader("Content-Type").equals("application/zip");
+                String contentType = request.getContentType();
+                boolean zipped = "application/zip".equals(contentType);
+                File temp = null;
                 try {
+                    // refused before anything is written; a form also carries part headers and boundaries,
+                    // the parser checks the size of the file itself
+                    long allowed = zipped ? MAX_UPLOAD : MAX_UPLOAD + FORM_OVERHEAD;
+                    if (MAX_UPLOAD > 0 && request.getContentLengthLong() > allowed) {
+                        throw new IOException("File too large");
+                    }
                     File homeDir = RemoteTM.getWorkFolder();
                     File tempDir = new File(homeDir, "tmp");
                     if (!tempDir.exists()) {
                         Files.createDirectories(tempDir.toPath());
                     }
-                    File temp = File.createTempFile("uploaded", zipped ? ".zip" : ".tmx", tempDir);
-                    try (FileOutputStream out = new FileOutputStream(temp)) {
-                        try (ServletInputStream input = request.getInputStream()) {
-                            if (zipped) {
-                                byte[] bytes = new byte[4096];
-                                int read = -1;
-                                while ((read = input.read(bytes)) != -1) {
-                                    out.write(bytes, 0, read);
-                                }
-                            } else {
-                                try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-                                    String boundary = "";
-                                    String disposition = "";
-                                    String contentType = "";
-                                    String line = "";
-                                    boolean firstWritten = false;
-                                    while ((line = reader.readLine()) != null) {
-                                        if (boundary.isEmpty()) {
-                                            boundary = line;
-                                            continue;
-                                        }
-                                        if (disposition.isEmpty() && line.startsWith("Content-Disposition")) {
-                                            disposition = line;
-                                            continue;
-                                        }
-                                        if (contentType.isEmpty() && line.startsWith("Content-Type")) {
-                                            contentType = line;
-                                            continue;
-                                        }
-                                        if (line.startsWith(boundary)) {
-                                            break;
-                                        }
-                                        if (firstWritten) {
-                                            out.write(("\n").getBytes(StandardCharsets.UTF_8));
-                                        }
-                                        out.write((line).getBytes(StandardCharsets.UTF_8));
-                                        if (!line.isBlank()) {
-                                            firstWritten = true;
-                                        }
-                                    }
-                                }
+                    try (ServletInputStream input = request.getInputStream()) {
+                        if (zipped) {
+                            temp = File.createTempFile("uploaded", ".zip", tempDir);
+                            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                                copy(input, channel);
+                            }
+                        } else {
+                            MultipartParser parser = new MultipartParser(input,
+                                    MultipartParser.getBoundary(contentType), MAX_UPLOAD);
+                            if (!parser.nextPart()) {
+                                throw new IOException("Missing file");
+                            }
+                            // a zipped TMX can also be attached to the form
+                            zipped = parser.isZipped();
+                            temp = File.createTempFile("uploaded", zipped ? ".zip" : ".tmx", tempDir);
+                            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                                parser.transferTo(channel);
                             }
                         }
                     }
                     if (zipped) {
-                        File tmx = File.createTempFile("uploaded", ".tmx", temp.getParentFile());
-                        try (ZipInputStream in = new ZipInputStream(new FileInputStream(temp))) {
-                            ZipEntry entry = null;
-                            while ((entry = in.getNextEntry()) != null) {
-                                tmx = new File(temp.getParentFile(), entry.getName());
-                                try (FileOutputStream output = new FileOutputStream(tmx.getAbsolutePath())) {
-                                    byte[] bytes = new byte[4096];
-                                    int read;
-                                    while ((read = in.read(bytes)) > 0) {
-                                        output.write(bytes, 0, read);
-                                    }
-                                }
-                            }
-                        }
+                        File tmx = unzip(temp, tempDir);
                         Files.delete(temp.toPath());
                         result.put("file", tmx.getName());
                     } else {
@@ -127,6 +103,9 @@ public class UploadServlet extends HttpServlet {
                     }
                     result.put(Constants.STATUS, Constants.OK);
                 } catch (Exception e) {
+                    if (temp != null) {
+                        Files.deleteIfExists(temp.toPath());
+                    }
                     result.put(Constants.STATUS, Constants.ERROR);
                     result.put(Constants.REASON, e.getMessage());
                     logger.log(Level.ERROR, "File upload error", e);
@@ -140,4 +119,40 @@ public class UploadServlet extends HttpServlet {
         }
     }
 
+    private static File unzip(File zip, File tempDir) throws IOException {
+        // the TMX is extracted under a name of our own, entry names are never used as paths
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            ZipEntry entry = null;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                File tmx = File.createTempFile("uploaded", ".tmx", tempDir);
+                try (FileChannel channel = FileChannel.open(tmx.toPath(), StandardOpenOption.WRITE)) {
+                    copy(in, channel);
+                } catch (IOException e) {
+                    Files.deleteIfExists(tmx.toPath());
+                    throw e;
+                }
+                return tmx;
+            }
+        }
+        throw new IOException("Missing file");
+    }
+
+    private static void copy(InputStream input, FileChannel channel) throws IOException {
+        byte[] bytes = new byte[65536];
+        long size = 0;
+        int read;
+        while ((read = input.read(bytes)) != -1) {
+            size += read;
+            if (MAX_UPLOAD > 0 && size > MAX_UPLOAD) {
+                throw new IOException("File too large");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
 }
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class MultipartParser {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int MAX_HEADERS = 16384;
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private InputStream input;
+    private long maxSize;
+    // "\r\n--" followed by the boundary; the CRLF belongs to the delimiter, not to the part
+    private byte[] delimiter;
+    private byte[] buffer;
+    private int start;
+    private int end;
+    // part bytes at the start of the buffer already known to precede the delimiter
+    private int ready;
+    private boolean eof;
+    private boolean started;
+    private boolean partEnded;
+    private boolean last;
+    private long size;
+    private Map<String, String> headers;
+
+    public MultipartParser(InputStream input, String boundary, long maxSize) {
+        this.input = input;
+        this.maxSize = maxSize;
+        buffer = new byte[BUFFER_SIZE];
+        if (boundary != null) {
+            delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            // the first delimiter of the body is not preceded by CRLF
+            buffer[0] = '\r';
+            buffer[1] = '\n';
+            end = 2;
+        }
+    }
+
+    public static String getBoundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String[] parts = contentType.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.regionMatches(true, 0, "boundary=", 0, 9)) {
+                String boundary = unquote(part.substring("boundary=".length()));
+                return boundary.isEmpty() ? null : boundary;
+            }
+        }
+        return null;
+    }
+
+    public boolean nextPart() throws IOException {
+        // skips the rest of the current part, or the preamble, and reads the headers of the next one
+        if (!started && delimiter == null) {
+            // no boundary in Content-Type, take it from the first line of the body
+            String line = readLine();
+            while (line.isEmpty()) {
+                line = readLine();
+            }
+            if (!line.startsWith("--") || line.length() < 3) {
+                throw new IOException("Malformed multipart body");
+            }
+            delimiter = ("\r\n" + line.trim()).getBytes(StandardCharsets.ISO_8859_1);
+            started = true;
+        } else {
+            if (last) {
+                return false;
+            }
+            started = true;
+            while (!partEnded) {
+                skip();
+            }
+            if (!fill(2)) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+            if (buffer[start] == '-' && buffer[start + 1] == '-') {
+                last = true;
+                return false;
+            }
+            // transport padding may follow the delimiter
+            readLine();
+        }
+        headers = readHeaders();
+        partEnded = false;
+        size = 0;
+        return true;
+    }
+
+    public String getHeader(String name) {
+        return headers != null ? headers.get(name) : null;
+    }
+
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    public String getName() {
+        return getDispositionParameter("name");
+    }
+
+    public String getFileName() {
+        return getDispositionParameter("filename");
+    }
+
+    public boolean isZipped() {
+        String fileName = getFileName();
+        return "application/zip".equals(getContentType())
+                || (fileName != null && fileName.toLowerCase().endsWith(".zip"));
+    }
+
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        // writes the content of the current part straight from the buffer
+        long written = 0;
+        int count;
+        while ((count = partBytes()) > 0) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, start, count);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            consume(count);
+            written += count;
+        }
+        return written;
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                if (partBytes() <= 0) {
+                    return -1;
+                }
+                int b = buffer[start] & 0xFF;
+                consume(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int count = partBytes();
+                if (count <= 0) {
+                    return -1;
+                }
+                count = Math.min(count, len);
+                System.arraycopy(buffer, start, b, off, count);
+                consume(count);
+                return count;
+            }
+        };
+    }
+
+    private void skip() throws IOException {
+        int count = partBytes();
+        if (count > 0) {
+            start += count;
+            ready = 0;
+        }
+    }
+
+    private int partBytes() throws IOException {
+        // bytes of the current part ready in the buffer; 0 once its delimiter is consumed
+        if (partEnded) {
+            return 0;
+        }
+        if (ready > 0) {
+            return ready;
+        }
+        while (true) {
+            int index = indexOf(delimiter, start, end);
+            if (index == start) {
+                start += delimiter.length;
+                partEnded = true;
+                return 0;
+            }
+            if (index > start) {
+                ready = index - start;
+                return ready;
+            }
+            // the tail of the buffer may hold the beginning of a delimiter
+            int safe = end - start - delimiter.length + 1;
+            if (safe > 0) {
+                ready = safe;
+                return ready;
+            }
+            if (!fill(end - start + 1)) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+        }
+    }
+
+    private void consume(int count) throws IOException {
+        start += count;
+        ready -= count;
+        size += count;
+        if (maxSize > 0 && size > maxSize) {
+            throw new IOException("File too large");
+        }
+    }
+
+    private boolean fill(int needed) throws IOException {
+        // reads until the buffer holds the requested number of unread bytes
+        while (end - start < needed) {
+            if (eof) {
+                return false;
+            }
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            int read = input.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                eof = true;
+            } else {
+                end += read;
+            }
+        }
+        return true;
+    }
+
+    private String readLine() throws IOException {
+        int index;
+        while ((index = indexOf(CRLF, start, end)) == -1) {
+            if (end - start >= MAX_HEADERS) {
+                throw new IOException("Multipart header too long");
+            }
+            if (!fill(end - start + 1)) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+        }
+        String line = new String(buffer, start, index - start, StandardCharsets.UTF_8);
+        start = index + 2;
+        return line;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int length = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            length += line.length();
+            if (length > MAX_HEADERS) {
+                throw new IOException("Multipart header too long");
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                result.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        return result;
+    }
+
+    private String getDispositionParameter(String name) {
+        String disposition = getHeader("Content-Disposition");
+        if (disposition == null) {
+            return null;
+        }
+        String[] parts = disposition.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int equals = part.indexOf('=');
+            if (equals != -1 && part.substring(0, equals).trim().equalsIgnoreCase(name)) {
+                return unquote(part.substring(equals + 1).trim());
+            }
+        }
+        return null;
+    }
+
+    private int indexOf(byte[] pattern, int from, int to) {
+        int limit = to - pattern.length;
+        outer: for (int i = from; i <= limit; i++) {
+            if (buffer[i] != pattern[0]) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
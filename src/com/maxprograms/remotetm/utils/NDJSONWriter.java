@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+
+import com.maxprograms.remotetm.TmManager.SegmentListener;
+
+public class NDJSONWriter implements SegmentListener {
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+    private static final long FLUSH_INTERVAL = 500;
+
+    private Writer writer;
+    private int flushEvery;
+    private int pending;
+    private long lastFlush;
+
+    public NDJSONWriter(HttpServletResponse response, int flushEvery) throws IOException {
+        response.setStatus(200);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setContentType(CONTENT_TYPE);
+        OutputStream output = response.getOutputStream();
+        this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        this.flushEvery = Math.max(1, flushEvery);
+        this.lastFlush = System.currentTimeMillis();
+    }
+
+    @Override
+    public void translated(JSONObject segment) throws IOException {
+        write(segment);
+    }
+
+    public void write(JSONObject json) throws IOException {
+        writer.write(json.toString());
+        writer.write('\n');
+        pending++;
+        long now = System.currentTimeMillis();
+        if (pending >= flushEvery || now - lastFlush >= FLUSH_INTERVAL) {
+            writer.flush();
+            pending = 0;
+            lastFlush = now;
+        }
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class GroupCommitTest {
+
+    private static final int MAX_WRITES = 3;
+    private static final long MAX_DELAY = 50;
+
+    private static ScheduledExecutorService timers;
+    // timer started by the last call to write()
+    private static volatile ScheduledFuture<?> lastTimer;
+
+    private GroupCommitTest() {
+        // private for security
+    }
+
+    public static void main(String[] args) throws Exception {
+        timers = Executors.newSingleThreadScheduledExecutor();
+        try {
+            int[] writes = { 0, MAX_WRITES };
+            long[] delays = { 0, MAX_DELAY };
+            for (int maxWrites : writes) {
+                for (long maxDelay : delays) {
+                    policy(maxWrites, maxDelay, false);
+                    policy(maxWrites, maxDelay, true);
+                }
+            }
+            failure();
+            timerCancelled();
+            policyChange();
+        } finally {
+            timers.shutdownNow();
+        }
+        System.out.println("GroupCommitTest passed");
+    }
+
+    private static void policy(int maxWrites, long maxDelay, boolean durable) throws Exception {
+        String name = "maxWrites=" + maxWrites + " maxDelay=" + maxDelay + (durable ? " durable" : "");
+        GroupCommit group = new GroupCommit(maxWrites, maxDelay);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < MAX_WRITES - 1; i++) {
+            futures.add(write(group, durable));
+        }
+        if (durable && maxDelay <= 0) {
+            // nothing else would commit it
+            expectDone(futures, name + ", every durable write is committed at once");
+            return;
+        }
+        if (maxDelay > 0) {
+            // the timer started by the first write commits the batch
+            expectNotDone(futures, name + ", before the delay");
+            await(futures, MAX_DELAY * 20, name + ", after the delay");
+            check(!group.hasPending(), name + ", nothing pending after the timer");
+            return;
+        }
+        expectNotDone(futures, name + ", below maxWrites");
+        if (maxWrites > 0) {
+            futures.add(write(group, durable));
+            expectDone(futures, name + ", the write that fills the batch commits it");
+            CompletableFuture<Void> next = write(group, durable);
+            check(next != futures.get(0), name + ", a new batch starts after a commit");
+            check(!next.isDone(), name + ", the new batch is pending");
+            return;
+        }
+        // no count, no timer, no durability: only an explicit commit completes the writes
+        Thread.sleep(MAX_DELAY * 2);
+        expectNotDone(futures, name + ", without explicit commit");
+        group.committed();
+        expectDone(futures, name + ", after explicit commit");
+    }
+
+    private static void failure() throws InterruptedException {
+        GroupCommit group = new GroupCommit(0, 0);
+        CompletableFuture<Void> first = group.written();
+        CompletableFuture<Void> second = group.written();
+        check(first == second, "writes of the same batch share one future");
+        group.failed(new IOException("Memory removed"));
+        try {
+            first.get();
+            throw new AssertionError("a failed commit completed normally");
+        } catch (ExecutionException e) {
+            check(e.getCause() instanceof IOException && "Memory removed".equals(e.getCause().getMessage()),
+                    "failure cause " + e.getCause());
+        }
+        check(!group.hasPending(), "nothing pending after a failure");
+        CompletableFuture<Void> third = group.written();
+        check(!third.isDone(), "the batch after a failure is pending");
+    }
+
+    private static void timerCancelled() throws Exception {
+        // a commit made before the delay expires cancels the timer
+        GroupCommit group = new GroupCommit(0, 60000);
+        CompletableFuture<Void> future = write(group, false);
+        ScheduledFuture<?> timer = lastTimer;
+        check(timer != null, "the first write starts a timer");
+        check(!group.needsTimer(), "only one timer per batch");
+        group.committed();
+        check(future.isDone() && !future.isCompletedExceptionally(), "explicit commit completes the batch");
+        check(timer.isCancelled(), "the timer of a committed batch is cancelled");
+        write(group, false);
+        check(lastTimer != timer, "the next batch starts its own timer");
+        group.committed();
+    }
+
+    private static void policyChange() {
+        GroupCommit group = new GroupCommit(0, 0);
+        CompletableFuture<Void> future = write(group, false);
+        check(!future.isDone(), "no policy, not durable");
+        group.setPolicy(2, 0);
+        check(group.getMaxWrites() == 2 && group.getMaxDelay() == 0, "policy is updated");
+        write(group, false);
+        check(future.isDone(), "the new count applies to the pending writes");
+    }
+
+    private static CompletableFuture<Void> write(GroupCommit group, boolean durable) {
+        // the same decisions TmManager.written() makes, with committed() in place of the engine commit
+        CompletableFuture<Void> future = group.written();
+        if (group.commitNow(durable)) {
+            group.committed();
+        } else if (group.needsTimer()) {
+            lastTimer = timers.schedule(group::committed, group.getMaxDelay(), TimeUnit.MILLISECONDS);
+            group.setTimer(lastTimer);
+        }
+        return future;
+    }
+
+    private static void expectDone(List<CompletableFuture<Void>> futures, String message) {
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<Void> future = futures.get(i);
+            check(future.isDone() && !future.isCompletedExceptionally(), message + " (write " + i + ")");
+        }
+    }
+
+    private static void expectNotDone(List<CompletableFuture<Void>> futures, String message) {
+        for (int i = 0; i < futures.size(); i++) {
+            check(!futures.get(i).isDone(), message + " (write " + i + ")");
+        }
+    }
+
+    private static void await(List<CompletableFuture<Void>> futures, long millis, String message)
+            throws InterruptedException, ExecutionException {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get(millis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new AssertionError(message + " (write " + i + ")");
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PooledEngineTest {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 200;
+
+    private static File folder = new File(System.getProperty("java.io.tmpdir"));
+
+    private PooledEngineTest() {
+        // private for security
+    }
+
+    public static void main(String[] args) throws Exception {
+        retireWaitsForReferences();
+        tryRetireNeedsIdle();
+        releaseWithoutReference();
+        closedEngine();
+        evictRace();
+        retireRace();
+        System.out.println("PooledEngineTest passed");
+    }
+
+    private static void retireWaitsForReferences() {
+        PooledEngine pooled = newEngine();
+        check(pooled.retain() && pooled.retain() && pooled.retain(), "retain an open engine");
+        pooled.retire();
+        check(pooled.isRetired(), "retired");
+        check(!pooled.retain(), "no new reference after retire");
+        check(!pooled.awaitDrained(20), "drained with 3 references out");
+        pooled.release();
+        pooled.release();
+        check(!pooled.awaitDrained(20), "drained with 1 reference out");
+        check(!pooled.isIdle(), "idle with 1 reference out");
+        pooled.release();
+        check(pooled.awaitDrained(0), "drained once every reference is released");
+        pooled.retire();
+        check(pooled.awaitDrained(0), "retire twice");
+    }
+
+    private static void tryRetireNeedsIdle() {
+        PooledEngine pooled = newEngine();
+        check(pooled.isIdle(), "new engine is idle");
+        check(pooled.retain(), "retain");
+        check(!pooled.tryRetire(), "an engine in use is not evicted");
+        check(!pooled.isRetired(), "failed eviction does not retire");
+        pooled.release();
+        check(pooled.tryRetire(), "an idle engine is evicted");
+        check(!pooled.retain(), "no new reference after eviction");
+        check(!pooled.tryRetire(), "evicted twice");
+        check(pooled.awaitDrained(0), "evicted engine is drained");
+    }
+
+    private static void releaseWithoutReference() {
+        // an extra release must not turn the retired flag into a count
+        PooledEngine pooled = newEngine();
+        pooled.release();
+        check(pooled.isIdle(), "idle after an extra release");
+        pooled.retire();
+        pooled.release();
+        check(pooled.isRetired() && pooled.awaitDrained(0), "still retired after an extra release");
+        check(!pooled.retain(), "no reference after an extra release");
+    }
+
+    private static void closedEngine() throws IOException {
+        PooledEngine pooled = newEngine();
+        pooled.checkOpen();
+        pooled.retire();
+        // a holder the drain is waiting for can still use the engine
+        pooled.checkOpen();
+        pooled.setClosed();
+        try {
+            pooled.checkOpen();
+            throw new AssertionError("a closed engine passed checkOpen");
+        } catch (IOException e) {
+            check(TmManager.CLOSED.equals(e.getMessage()), "unexpected error " + e.getMessage());
+        }
+        pooled.awaitClosed();
+    }
+
+    private static void evictRace() throws InterruptedException {
+        // the reaper evicts while requests retain and release; it must never evict an engine in use, and no
+        // request may get a reference once it is evicted
+        for (int round = 0; round < ROUNDS; round++) {
+            PooledEngine pooled = newEngine();
+            AtomicInteger holders = new AtomicInteger();
+            AtomicBoolean evicted = new AtomicBoolean();
+            AtomicReference<String> failure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                threads.add(start(() -> {
+                    await(start);
+                    for (int j = 0; j < 2000 && !pooled.isRetired(); j++) {
+                        boolean before = evicted.get();
+                        if (pooled.retain()) {
+                            if (before) {
+                                failure.compareAndSet(null, "retained an evicted engine");
+                            }
+                            holders.incrementAndGet();
+                            Thread.yield();
+                            holders.decrementAndGet();
+                            pooled.release();
+                        }
+                    }
+                }));
+            }
+            threads.add(start(() -> {
+                await(start);
+                while (!pooled.tryRetire()) {
+                    Thread.yield();
+                }
+                if (holders.get() != 0) {
+                    failure.compareAndSet(null, "evicted with " + holders.get() + " holders");
+                }
+                evicted.set(true);
+            }));
+            start.countDown();
+            join(threads);
+            check(failure.get() == null, failure.get());
+            check(pooled.isRetired() && pooled.awaitDrained(0), "evicted engine is drained");
+        }
+    }
+
+    private static void retireRace() throws InterruptedException {
+        // removeMemory retires while requests are running; it waits for the ones that got a reference, and no
+        // request gets one afterwards
+        for (int round = 0; round < ROUNDS; round++) {
+            PooledEngine pooled = newEngine();
+            AtomicInteger holders = new AtomicInteger();
+            AtomicBoolean retired = new AtomicBoolean();
+            AtomicReference<String> failure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                threads.add(start(() -> {
+                    await(start);
+                    for (int j = 0; j < 2000; j++) {
+                        boolean before = retired.get();
+                        if (!pooled.retain()) {
+                            return;
+                        }
+                        if (before) {
+                            failure.compareAndSet(null, "retained a retired engine");
+                        }
+                        holders.incrementAndGet();
+                        Thread.yield();
+                        holders.decrementAndGet();
+                        pooled.release();
+                    }
+                }));
+            }
+            start.countDown();
+            Thread.yield();
+            pooled.retire();
+            retired.set(true);
+            check(pooled.awaitDrained(10000), "references released after retire");
+            if (holders.get() != 0) {
+                failure.compareAndSet(null, "drained with " + holders.get() + " holders");
+            }
+            join(threads);
+            check(failure.get() == null, failure.get());
+            check(!pooled.retain(), "no reference after the drain");
+        }
+    }
+
+    private static PooledEngine newEngine() {
+        // the reference count does not use the engine, the indexes only touch the folder when they are loaded
+        return new PooledEngine(null, folder, new GroupCommit(0, 0));
+    }
+
+    private static Thread start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.start();
+        return thread;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm;
+
+import java.util.Random;
+
+import com.maxprograms.swordfish.tm.MatchQuality;
+
+public class SimilarityTest {
+
+    private SimilarityTest() {
+        // private for security
+    }
+
+    public static void main(String[] args) {
+        fixedPairs();
+        randomPairs();
+        System.out.println("SimilarityTest passed");
+    }
+
+    private static void fixedPairs() {
+        String[][] pairs = { { "", "" }, { "   ", "" }, { "abc", "" }, { "abc", "abc" }, { " abc ", "abc" },
+                { "The quick brown fox", "The quick brown dog" }, { "abcabcabc", "cba" }, { "a b c", "c b a" },
+                { "Hello world", "hello World" }, { "x", "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx" } };
+        for (int i = 0; i < pairs.length; i++) {
+            check(pairs[i][0], pairs[i][1]);
+            check(pairs[i][1], pairs[i][0]);
+        }
+    }
+
+    private static void randomPairs() {
+        // small alphabets produce many repeated and overlapping common substrings
+        Random random = new Random(20240307);
+        String[] alphabets = { "ab", "ab ", "abcd \t", "abcdefghijklmnopqrstuvwxyz ,." };
+        for (int i = 0; i < 20000; i++) {
+            String alphabet = alphabets[i % alphabets.length];
+            String x = randomText(random, alphabet, random.nextInt(120));
+            String y = random.nextInt(4) == 0 ? mutate(random, x, alphabet)
+                    : randomText(random, alphabet, random.nextInt(120));
+            check(x, y);
+        }
+        // longer than the initial buffers
+        for (int i = 0; i < 200; i++) {
+            String x = randomText(random, alphabets[3], 256 + random.nextInt(400));
+            check(x, mutate(random, x, alphabets[3]));
+        }
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(Random random, String text, String alphabet) {
+        StringBuilder sb = new StringBuilder(text);
+        int changes = 1 + random.nextInt(5);
+        for (int i = 0; i < changes; i++) {
+            int position = sb.length() == 0 ? 0 : random.nextInt(sb.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.insert(position, alphabet.charAt(random.nextInt(alphabet.length())));
+                    break;
+                case 1:
+                    if (sb.length() > 0) {
+                        sb.deleteCharAt(position);
+                    }
+                    break;
+                default:
+                    if (sb.length() > 0) {
+                        sb.setCharAt(position, alphabet.charAt(random.nextInt(alphabet.length())));
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void check(String x, String y) {
+        int expected = MatchQuality.similarity(x, y);
+        int actual = Similarity.similarity(x, y);
+        if (expected != actual) {
+            throw new AssertionError("similarity(\"" + x + "\", \"" + y + "\") is " + actual + ", MatchQuality gives "
+                    + expected);
+        }
+    }
+}
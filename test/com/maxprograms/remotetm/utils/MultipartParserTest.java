@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2008-2024 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.remotetm.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MultipartParserTest {
+
+    private static final String BOUNDARY = "----RemoteTMBoundary7MA4YWxkTrZu0gW";
+    // same as MultipartParser.BUFFER_SIZE
+    private static final int BUFFER_SIZE = 65536;
+
+    private MultipartParserTest() {
+        // private for security
+    }
+
+    public static void main(String[] args) throws IOException {
+        delimiterAcrossRefills();
+        crlfInContent();
+        boundaryFromBody();
+        sizeLimit();
+        truncatedBody();
+        System.out.println("MultipartParserTest passed");
+    }
+
+    private static void delimiterAcrossRefills() throws IOException {
+        // the closing delimiter starts a few bytes before the end of the first buffer, and the stream hands out
+        // short reads, so its first bytes are read before the rest
+        byte[] header = partHeader("file", "memory.tmx");
+        int delimiter = ("\r\n--" + BOUNDARY).length();
+        // the parser puts CRLF before the body, then come the opening delimiter line, as long as the delimiter,
+        // and the part headers; with an offset of 0 the closing delimiter starts right after the first buffer
+        int fill = BUFFER_SIZE - 2 - delimiter - header.length;
+        for (int offset = -delimiter - 2; offset <= 2; offset++) {
+            byte[] content = new byte[fill + offset];
+            Arrays.fill(content, (byte) 'x');
+            for (int chunk : new int[] { 1, 7, 4096, BUFFER_SIZE }) {
+                byte[] body = body(header, content, partHeader("extra", null), "value".getBytes());
+                MultipartParser parser = new MultipartParser(new Chunked(body, chunk), BOUNDARY, 0);
+                expectPart(parser, "file", content, chunk % 2 == 0);
+                expectPart(parser, "extra", "value".getBytes(), false);
+                check(!parser.nextPart(), "no part after the last delimiter");
+            }
+        }
+    }
+
+    private static void crlfInContent() throws IOException {
+        // line breaks, partial delimiters and the boundary without its leading CRLF are content
+        String text = "line 1\r\nline 2\r\n\r\n--" + BOUNDARY.substring(0, 10) + "\r\n-" + BOUNDARY + "\r\n\r-\r\n";
+        byte[] content = text.getBytes(StandardCharsets.ISO_8859_1);
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] noise = new byte[random.nextInt(3 * BUFFER_SIZE)];
+            random.nextBytes(noise);
+            byte[] data = concat(content, noise, content);
+            byte[] body = body(partHeader("file", "memory.tmx"), data);
+            MultipartParser parser = new MultipartParser(new Chunked(body, 1 + random.nextInt(9000)), BOUNDARY, 0);
+            expectPart(parser, "file", data, i % 2 == 0);
+            check(!parser.nextPart(), "single part");
+        }
+    }
+
+    private static void boundaryFromBody() throws IOException {
+        // without a boundary in Content-Type it is taken from the first line, after the preamble lines
+        byte[] body = concat("\r\n".getBytes(), body(partHeader("file", "a.tmx"), "abc\r\n".getBytes()));
+        MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), null, 0);
+        expectPart(parser, "file", "abc\r\n".getBytes(), false);
+        check(!parser.nextPart(), "single part");
+        check(BOUNDARY.equals(MultipartParser.getBoundary("multipart/form-data; boundary=\"" + BOUNDARY + "\"")),
+                "quoted boundary");
+        check(MultipartParser.getBoundary("multipart/form-data") == null, "missing boundary");
+    }
+
+    private static void sizeLimit() throws IOException {
+        byte[] content = new byte[200000];
+        Arrays.fill(content, (byte) 'a');
+        byte[] body = body(partHeader("file", "memory.tmx"), content);
+        MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, 100000);
+        check(parser.nextPart(), "first part");
+        try {
+            parser.transferTo(Channels.newChannel(new ByteArrayOutputStream()));
+            throw new AssertionError("a part larger than the limit was accepted");
+        } catch (IOException e) {
+            check("File too large".equals(e.getMessage()), "unexpected error " + e.getMessage());
+        }
+        // exactly at the limit
+        parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, content.length);
+        expectPart(parser, "file", content, false);
+    }
+
+    private static void truncatedBody() throws IOException {
+        byte[] body = concat(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1),
+                partHeader("file", "a.tmx"), "abc".getBytes());
+        MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, 0);
+        check(parser.nextPart(), "first part");
+        try {
+            parser.transferTo(Channels.newChannel(new ByteArrayOutputStream()));
+            throw new AssertionError("a part without closing delimiter was accepted");
+        } catch (IOException e) {
+            check("Unexpected end of multipart body".equals(e.getMessage()), "unexpected error " + e.getMessage());
+        }
+    }
+
+    private static void expectPart(MultipartParser parser, String name, byte[] expected, boolean stream)
+            throws IOException {
+        check(parser.nextPart(), "missing part " + name);
+        check(name.equals(parser.getName()), "part name " + parser.getName());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (stream) {
+            InputStream in = parser.getInputStream();
+            byte[] buffer = new byte[1000];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } else {
+            parser.transferTo(Channels.newChannel(out));
+        }
+        byte[] actual = out.toByteArray();
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError("part " + name + " has " + actual.length + " bytes, expected " + expected.length
+                    + ", first difference at " + Arrays.mismatch(expected, actual));
+        }
+    }
+
+    private static byte[] partHeader(String name, String fileName) {
+        String header = "Content-Disposition: form-data; name=\"" + name + "\""
+                + (fileName != null ? "; filename=\"" + fileName + "\"\r\nContent-Type: application/octet-stream"
+                        : "")
+                + "\r\n\r\n";
+        return header.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] body(byte[]... parts) {
+        // parts alternate between headers and content
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.length; i += 2) {
+            out.writeBytes(((i == 0 ? "" : "\r\n") + "--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.writeBytes(parts[i]);
+            out.writeBytes(parts[i + 1]);
+        }
+        out.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.writeBytes(array);
+        }
+        return out.toByteArray();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static class Chunked extends FilterInputStream {
+
+        // returns at most chunk bytes per read, like a slow network connection
+        private int chunk;
+
+        Chunked(byte[] data, int chunk) {
+            super(new ByteArrayInputStream(data));
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -462,13 +462,22 @@ export class Dashboard implements View {
     }
 
     requestExport(): void {
+        // the TMX file is generated while it is downloaded
+        window.open(RemoteTM.getMainURL() + '/export?session=' +
+            encodeURIComponent(RemoteTM.getSession()) +
+            '&memory=' +
+            encodeURIComponent(this.selected) +
+            '&srcLang=' +
+            encodeURIComponent('*all*') +
+            '&close=true');
+    }
+
+    watchJob(job: string, uploading?: () => boolean): void {
+        // while the upload that creates the job is still running, an unknown job is not an error yet
         let params: any = {
-            command: 'exportMemory',
-            memory: this.selected,
-            srcLang: '*all*',
-            close: true
+            command: 'jobStatus',
+            job: job
         }
-        this.setStatus('Preparing download...');
         fetch(RemoteTM.getMainURL() + '/memories', {
             method: 'POST',
             headers: [
@@ -478,22 +487,41 @@ export class Dashboard implements View {
             ],
             body: JSON.stringify(params)
         }).then(async (response: Response) => {
-            this.setStatus('');
             let json: any = await response.json();
-            json.status === 'OK' ? this.downloadMemory(json.file) : RemoteTM.showMessage(json.reason);
+            if (json.status !== 'OK') {
+                if (uploading && json.reason === 'Unknown job') {
+                    if (uploading()) {
+                        setTimeout(() => { this.watchJob(job, uploading); }, 2000);
+                    }
+                    // otherwise the upload was refused and its response reports why
+                    return;
+                }
+                this.setStatus('');
+                RemoteTM.showMessage(json.reason);
+                return;
+            }
+            let status: any = json.job;
+            if (status.state === 'queued') {
+                this.setStatus('Import waiting to start...');
+            } else if (status.state === 'running') {
+                this.setStatus('Importing... ' + status.processed + ' units (' + status.throughput + ' per second)');
+            } else {
+                this.setStatus('');
+                if (status.state === 'done') {
+                    RemoteTM.showMessage(status.processed + ' units imported');
+                } else if (status.state === 'failed') {
+                    RemoteTM.showMessage('Import failed: ' + status.reason);
+                }
+                this.loadMemories();
+                return;
+            }
+            setTimeout(() => { this.watchJob(job, uploading); }, 2000);
         }).catch((reason: any) => {
             this.setStatus('');
             console.error('Error:', reason);
         });
     }
 
-    downloadMemory(file: string) {
-        window.open(RemoteTM.getMainURL() + '/download?session=' +
-            encodeURIComponent(RemoteTM.getSession()) +
-            '&file=' +
-            encodeURIComponent(file));
-    }
-
     setStatus(status: string) {
         let statusDiv: HTMLDivElement = document.getElementById('status') as HTMLDivElement;
         statusDiv.innerText = status;
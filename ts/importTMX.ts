@@ -79,59 +79,54 @@ export class ImportTMX {
     }
 
     uploadFile(file: File): void {
-        let formData = new FormData();
-        formData.append("file", file);
-        this.parent.setStatus('Uploading...');
-        fetch(RemoteTM.getMainURL() + '/upload', {
-            method: 'POST',
-            headers: [
-                ['Session', RemoteTM.getSession()],
-                ['Content-Type', 'multipart/form-data'],
-                ['Accept', 'application/json']
-            ],
-            body: formData
-        }).then(async (response: Response) => {
-            let json: any = await response.json();
-            this.parent.setStatus('');
-            json.status === 'OK' ? this.requestImport(json.file) : RemoteTM.showMessage(json.reason);
-        }).catch((reason: any) => {
-            this.parent.setStatus('');
-            console.error('Error:', reason);
-        });
-    }
-
-    requestImport(file: string) {
-        let params: any = {
-            command: 'importTMX',
+        // the file is sent as request body and imported while it is received; the job id is chosen here,
+        // so that the dashboard can follow the import from other requests while the upload runs
+        let job: string = ImportTMX.newJobId();
+        let query: URLSearchParams = new URLSearchParams({
             memory: this.memory,
             project: this.project.getValue(),
             subject: this.subject.getValue(),
             client: this.client.getValue(),
-            file: file,
-            close: true
-        };
-        this.parent.setStatus('Starting import...');
-        fetch(RemoteTM.getMainURL() + '/memories', {
+            file: file.name,
+            job: job,
+            close: 'true'
+        });
+        let zipped: boolean = file.name.toLowerCase().endsWith('.zip');
+        let uploading: boolean = true;
+        this.dialog.close();
+        this.parent.setStatus('Uploading...');
+        fetch(RemoteTM.getMainURL() + '/import?' + query.toString(), {
             method: 'POST',
             headers: [
                 ['Session', RemoteTM.getSession()],
-                ['Content-Type', 'application/json'],
+                ['Content-Type', zipped ? 'application/zip' : 'application/xml'],
                 ['Accept', 'application/json']
             ],
-            body: JSON.stringify(params)
+            body: file
         }).then(async (response: Response) => {
+            uploading = false;
             let json: any = await response.json();
-            this.parent.setStatus('');
-            if (json.status === 'OK') {
-                RemoteTM.showMessage('You will receive an email with import results');
-                this.dialog.close();
-            } else {
+            if (json.status !== 'OK' && !json.job) {
+                // refused before the job started, the dashboard has nothing to follow
+                this.parent.setStatus('');
                 RemoteTM.showMessage(json.reason);
             }
         }).catch((reason: any) => {
+            uploading = false;
             this.parent.setStatus('');
             console.error('Error:', reason);
         });
+        this.parent.watchJob(job, () => { return uploading; });
+    }
+
+    static newJobId(): string {
+        // crypto.randomUUID() is not available on plain HTTP
+        let bytes: Uint8Array = crypto.getRandomValues(new Uint8Array(16));
+        bytes[6] = (bytes[6] & 0x0f) | 0x40;
+        bytes[8] = (bytes[8] & 0x3f) | 0x80;
+        let hex: string[] = Array.from(bytes, (b: number) => { return ('0' + b.toString(16)).slice(-2); });
+        return hex.slice(0, 4).join('') + '-' + hex.slice(4, 6).join('') + '-' + hex.slice(6, 8).join('') + '-'
+            + hex.slice(8, 10).join('') + '-' + hex.slice(10).join('');
     }
 
     getProjects(): void {